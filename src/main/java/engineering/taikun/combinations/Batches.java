@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>Groups a stream of tuples into blocks, see {@link TupleSupplier#batches(int)} and
+ * {@link TupleSupplier#columnBatches(int)}.</p>
+ */
+final class Batches {
+
+	private Batches() {
+	}
+
+	static void check(final int block_size) {
+		if (block_size < 1) {
+			throw new IllegalArgumentException("Block size " + block_size + " is not positive");
+		}
+	}
+
+	/**
+	 * @param tuples The tuples to group, consumed lazily
+	 * @param block_size The number of tuples in each block but the last
+	 * @param columnar Whether to transpose each block into one array per position
+	 * @return A lazily constructed stream of the blocks
+	 */
+	static Stream<Object[][]> of(final Stream<Tuple> tuples, final int block_size, final boolean columnar) {
+		check(block_size);
+
+		final Iterator<Tuple> iterator = tuples.iterator();
+		final Iterator<Object[][]> blocks = new Iterator<Object[][]>() {
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Object[][] next() {
+				Object[][] rows = new Object[block_size][];
+				int count = 0;
+
+				// rows are copied, as the tuples may be shared, e.g. by a CachedSupplier; columns copy on transposing
+				while (count < block_size && iterator.hasNext()) {
+					rows[count++] = columnar ? iterator.next().o : iterator.next().o.clone();
+				}
+
+				if (count < block_size) {
+					rows = Arrays.copyOf(rows, count);
+				}
+
+				return columnar ? transpose(rows) : rows;
+			}
+		};
+
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(blocks, Spliterator.ORDERED | Spliterator.NONNULL), false
+		).onClose(tuples::close);
+	}
+
+	/**
+	 * @param rows A row-major block
+	 * @return The columns of the block, as many as the widest row has elements, null past the end of narrower rows
+	 */
+	static Object[][] transpose(final Object[][] rows) {
+		int width = 0;
+
+		for (final Object[] row : rows) {
+			width = Math.max(width, row.length);
+		}
+
+		final Object[][] columns = new Object[width][rows.length];
+
+		for (int i = 0; i < rows.length; i++) {
+			for (int j = 0; j < rows[i].length; j++) {
+				columns[j][i] = rows[i][j];
+			}
+		}
+
+		return columns;
+	}
+}
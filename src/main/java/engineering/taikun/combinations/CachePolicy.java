@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+/**
+ * <p>How a {@link CachedSupplier} keeps the tuples of the supplier it wraps, see
+ * {@link TupleSupplier#cached(CachePolicy)}.</p>
+ */
+public final class CachePolicy {
+
+	enum Kind {
+		MATERIALIZE, PREFIX, SOFT, SHARED
+	}
+
+	final Kind kind;
+
+	/** For {@link Kind#PREFIX}: the number of tuples kept */
+	final int prefix;
+
+	/** For {@link Kind#SHARED}: the cache holding the tuples */
+	final TupleCache cache;
+
+	private CachePolicy(final Kind kind, final int prefix, final TupleCache cache) {
+		this.kind = kind;
+		this.prefix = prefix;
+		this.cache = cache;
+	}
+
+	/**
+	 * @return A policy that keeps all tuples, from the first call on
+	 */
+	public static CachePolicy materialize() {
+		return new CachePolicy(Kind.MATERIALIZE, 0, null);
+	}
+
+	/**
+	 * <p>Keep the first <tt>n</tt> tuples, and stream the rest from the wrapped supplier on each call. The wrapped
+	 * supplier still generates the first <tt>n</tt> tuples to skip them, unless it is a {@link Combinator} or
+	 * {@link CompiledCombinator} without where clauses, which starts at rank <tt>n</tt> directly.</p>
+	 *
+	 * <p>The first call collects the prefix eagerly, before it returns, even if the stream is then only partly
+	 * consumed. It streams the rest from the same pass, so the wrapped supplier is called once for it.</p>
+	 *
+	 * @param n The number of tuples to keep
+	 * @return A policy that keeps a prefix of the tuples
+	 * @throws IllegalArgumentException If <tt>n</tt> is negative
+	 */
+	public static CachePolicy prefix(final int n) {
+		if (n < 0) {
+			throw new IllegalArgumentException("Negative prefix: " + n);
+		}
+
+		return new CachePolicy(Kind.PREFIX, n, null);
+	}
+
+	/**
+	 * @return A policy that keeps all tuples through a soft reference, which the garbage collector clears when memory
+	 * runs low, after which the next call regenerates them
+	 */
+	public static CachePolicy soft() {
+		return new CachePolicy(Kind.SOFT, 0, null);
+	}
+
+	/**
+	 * @param cache The cache to keep all tuples in, together with those of the other suppliers using it
+	 * @return A policy that keeps the tuples within the byte budget of a shared, least recently used cache
+	 */
+	public static CachePolicy shared(final TupleCache cache) {
+		return new CachePolicy(Kind.SHARED, 0, cache);
+	}
+}
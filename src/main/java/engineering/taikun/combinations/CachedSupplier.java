@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>A {@link TupleSupplier} that keeps the tuples of another one, so that calling {@link #get()} again does not
+ * regenerate them, see {@link TupleSupplier#cached(CachePolicy)}.</p>
+ *
+ * <p>Cached tuples are the same instances on every call, and must not be modified. A CachedSupplier is thread-safe
+ * as long as the supplier it wraps is.</p>
+ */
+public final class CachedSupplier implements TupleSupplier {
+
+	private final TupleSupplier supplier;
+	private final CachePolicy policy;
+
+	/** For {@link CachePolicy#materialize()} and {@link CachePolicy#prefix(int)}: the kept tuples, once generated */
+	private Tuple[] tuples;
+
+	/** For {@link CachePolicy#soft()}: the kept tuples, once generated */
+	private SoftReference<Tuple[]> reference;
+
+	/** For {@link CachePolicy#prefix(int)}: the wrapped Combinator, once compiled to stream the rest */
+	private CompiledCombinator compiled;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	CachedSupplier(final TupleSupplier supplier, final CachePolicy policy) {
+		this.supplier = supplier;
+		this.policy = policy;
+	}
+
+	@Override
+	public Stream<Tuple> get() {
+		switch (this.policy.kind) {
+			case PREFIX:
+				return prefixed();
+			case SHARED:
+				return Arrays.stream(shared());
+			default:
+				return Arrays.stream(all());
+		}
+	}
+
+	/**
+	 * <p>Look the tuples up in the shared cache and regenerate them under the same lock, so that concurrent calls that
+	 * miss generate them once.</p>
+	 */
+	private synchronized Tuple[] shared() {
+		final TupleCache cache = this.policy.cache;
+		Tuple[] shared = cache.lookup(this);
+
+		if (shared == null) {
+			this.misses++;
+			shared = this.supplier.get().toArray(Tuple[]::new);
+			cache.store(this, shared);
+		} else {
+			this.hits++;
+		}
+
+		return shared;
+	}
+
+	private synchronized Tuple[] all() {
+		Tuple[] tuples = this.policy.kind == CachePolicy.Kind.SOFT
+				? this.reference == null ? null : this.reference.get()
+				: this.tuples;
+
+		if (tuples == null) {
+			this.misses++;
+			tuples = this.supplier.get().toArray(Tuple[]::new);
+
+			if (this.policy.kind == CachePolicy.Kind.SOFT) {
+				this.reference = new SoftReference<>(tuples);
+			} else {
+				this.tuples = tuples;
+			}
+		} else {
+			this.hits++;
+		}
+
+		return tuples;
+	}
+
+	/**
+	 * <p>The first call collects the prefix from the wrapped supplier before it returns, and goes on to stream the rest
+	 * from the same stream, so that it generates the tuples once. The prefix is collected outside the lock, so other
+	 * calls are not held up by it; concurrent first calls may each collect it, and the first one to finish is kept.
+	 * </p>
+	 */
+	private Stream<Tuple> prefixed() {
+		final Tuple[] kept;
+
+		synchronized (this) {
+			kept = this.tuples;
+
+			if (kept != null) {
+				this.hits++;
+			}
+		}
+
+		if (kept != null) {
+			return Stream.concat(Arrays.stream(kept), rest(kept.length));
+		}
+
+		final Stream<Tuple> source = this.supplier.get();
+		final Iterator<Tuple> iterator = source.iterator();
+		final ArrayList<Tuple> collected = new ArrayList<>();
+
+		while (collected.size() < this.policy.prefix && iterator.hasNext()) {
+			collected.add(iterator.next());
+		}
+
+		final Tuple[] prefix = collected.toArray(new Tuple[collected.size()]);
+
+		synchronized (this) {
+			this.misses++;
+
+			if (this.tuples == null) {
+				this.tuples = prefix;
+			}
+		}
+
+		return Stream.concat(
+				Arrays.stream(prefix),
+				StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+		).onClose(source::close);
+	}
+
+	/**
+	 * @param kept The number of kept tuples
+	 * @return The tuples after the kept prefix, from the wrapped supplier
+	 */
+	private Stream<Tuple> rest(final int kept) {
+		if (kept < this.policy.prefix) {
+			// the supplier ran out within the prefix
+			return Stream.empty();
+		}
+
+		final CompiledCombinator compiled = compiled();
+
+		if (compiled != null && compiled.clauses.length == 0 && compiled.size >= 0) {
+			return compiled.stream(kept, compiled.size);
+		}
+
+		return this.supplier.get().skip(kept);
+	}
+
+	/**
+	 * @return The wrapped supplier as a CompiledCombinator, compiled once, or null if it is not a Combinator
+	 */
+	private synchronized CompiledCombinator compiled() {
+		if (this.compiled == null) {
+			this.compiled = this.supplier instanceof Combinator
+					? ((Combinator) this.supplier).compile()
+					: this.supplier instanceof CompiledCombinator ? (CompiledCombinator) this.supplier : null;
+		}
+
+		return this.compiled;
+	}
+
+	/**
+	 * @return The number of calls served from the cache, for a prefix policy the calls that only streamed the rest
+	 */
+	public synchronized long hits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return The number of calls that had to generate the cached tuples
+	 */
+	public synchronized long misses() {
+		return this.misses;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+/**
+ * <p>Receives the tuples of a {@link Combinator} as changes to their pool indexes, see
+ * {@link Combinator#forEachChange(ChangeConsumer)}.</p>
+ *
+ * <p>Positions and pool indexes are those of {@link Combinator#indexStream()}. Applying the changes to an int[] of
+ * those positions keeps it equal to the index array of the current tuple.</p>
+ */
+@FunctionalInterface public interface ChangeConsumer {
+
+	/**
+	 * <p>The pool index at <tt>position</tt> changed.</p>
+	 *
+	 * @param position The position in the index array
+	 * @param previous The pool index in the previous tuple, or -1 for the first tuple
+	 * @param current The pool index in the current tuple
+	 */
+	void change(int position, int previous, int current);
+
+	/**
+	 * <p>All changes of the current tuple have been reported. Does nothing by default.</p>
+	 */
+	default void tuple() {
+	}
+}
@@ -13,12 +13,13 @@
 
 package engineering.taikun.combinations;
 
+import java.math.BigInteger;
 import java.util.*;
-import java.util.function.Supplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
-import static engineering.taikun.combinations.Tuple.t;
-
 /**
  * <p>A class for generating combinations and permutations of input collections.</p>
  *
@@ -69,11 +70,17 @@ import static engineering.taikun.combinations.Tuple.t;
  */
 public class Combinator implements TupleSupplier {
 
-	private static final Object[] EMPTY_OBJ_AR = new Object[0];
-	private static final Tuple PLACEHOLDER = t(EMPTY_OBJ_AR);
+	/** The default for {@link #expansionLimit(long)} */
+	public static final long DEFAULT_EXPANSION_LIMIT = 1 << 20;
 
 	final ArrayList<Factor> factors = new ArrayList<>();
 
+	final ArrayList<Clause> clauses = new ArrayList<>();
+
+	long expansion_limit = DEFAULT_EXPANSION_LIMIT;
+
+	Order order = Order.LEXICOGRAPHIC;
+
 	/**
 	 * <p>Choose one object from the input.</p>
 	 *
@@ -83,7 +90,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator chooseOne(final Object... o) {
-		this.factors.add(new Factor(true, 1, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.CHOOSE, 1, Arrays.asList(o)));
 		return this;
 	}
 
@@ -97,7 +104,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator chooseTwo(final Object... o) {
-		this.factors.add(new Factor(true, 2, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.CHOOSE, 2, Arrays.asList(o)));
 		return this;
 	}
 
@@ -111,7 +118,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator chooseThree(final Object... o) {
-		this.factors.add(new Factor(true, 3, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.CHOOSE, 3, Arrays.asList(o)));
 		return this;
 	}
 
@@ -125,7 +132,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator chooseFour(final Object... o) {
-		this.factors.add(new Factor(true, 4, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.CHOOSE, 4, Arrays.asList(o)));
 		return this;
 	}
 
@@ -139,7 +146,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator chooseFive(final Object... o) {
-		this.factors.add(new Factor(true, 5, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.CHOOSE, 5, Arrays.asList(o)));
 		return this;
 	}
 
@@ -155,7 +162,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator chooseR(final int r, final Object... o) {
-		this.factors.add(new Factor(true, r, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.CHOOSE, r, Arrays.asList(o)));
 		return this;
 	}
 
@@ -171,7 +178,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator chooseR(final int r, final List<Object> o) {
-		this.factors.add(new Factor(true, r, () -> 0, () -> Collections.EMPTY_SET, o));
+		this.factors.add(new Factor(Kind.CHOOSE, r, o));
 		return this;
 	}
 
@@ -197,7 +204,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator permuteTwo(final Object... o) {
-		this.factors.add(new Factor(false, 2, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.PERMUTE, 2, Arrays.asList(o)));
 		return this;
 	}
 
@@ -211,7 +218,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator permuteThree(final Object... o) {
-		this.factors.add(new Factor(false, 3, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.PERMUTE, 3, Arrays.asList(o)));
 		return this;
 	}
 
@@ -225,7 +232,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator permuteFour(final Object... o) {
-		this.factors.add(new Factor(false, 4, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.PERMUTE, 4, Arrays.asList(o)));
 		return this;
 	}
 
@@ -239,7 +246,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator permuteFive(final Object... o) {
-		this.factors.add(new Factor(false, 5, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.PERMUTE, 5, Arrays.asList(o)));
 		return this;
 	}
 
@@ -255,7 +262,7 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator permuteN(final int r, final Object... o) {
-		this.factors.add(new Factor(false, r, () -> 0, () -> Collections.EMPTY_SET, Arrays.asList(o)));
+		this.factors.add(new Factor(Kind.PERMUTE, r, Arrays.asList(o)));
 		return this;
 	}
 
@@ -271,143 +278,582 @@ public class Combinator implements TupleSupplier {
 	 * @return The modifed Combinator
 	 */
 	public Combinator permuteN(final int r, final List<Object> o) {
-		this.factors.add(new Factor(false, r, () -> 0, () -> Collections.EMPTY_SET, o));
+		this.factors.add(new Factor(Kind.PERMUTE, r, o));
 		return this;
 	}
 
 	/**
-	 * <p>Iteratively, lazily, return all tuples as dictated by the layering of combinations and permutations.</p>
+	 * <p>Select <tt>r</tt> objects from the input, where equal objects are interchangeable: each distinct arrangement
+	 * is returned once, however many equal objects it could have been built from. Equal objects need not be adjacent
+	 * in the input.</p>
 	 *
-	 * @return A lazily constructed stream of the resulting tuples
+	 * <p>Multiplies the number of total results by the number of distinct arrangements, which for R = N is
+	 * N!/(N<sub>1</sub>!...N<sub>k</sub>!), where N is the count of the input, N<sub>1</sub> to N<sub>k</sub> are the
+	 * counts of equal objects in it, and R is the count selected.</p>
+	 *
+	 * @param r The number of objects selected
+	 * @param o The pool to choose from
+	 * @return The modifed Combinator
 	 */
-	public Stream<Tuple> stream() {
+	public Combinator permuteDistinct(final int r, final Object... o) {
+		this.factors.add(new Factor(Kind.PERMUTE_DISTINCT, r, Arrays.asList(o)));
+		return this;
+	}
+
+	/**
+	 * <p>Select <tt>r</tt> objects from the input, where equal objects are interchangeable: each distinct arrangement
+	 * is returned once, however many equal objects it could have been built from. Equal objects need not be adjacent
+	 * in the input.</p>
+	 *
+	 * <p>Multiplies the number of total results by the number of distinct arrangements, which for R = N is
+	 * N!/(N<sub>1</sub>!...N<sub>k</sub>!), where N is the count of the input, N<sub>1</sub> to N<sub>k</sub> are the
+	 * counts of equal objects in it, and R is the count selected.</p>
+	 *
+	 * @param r The number of objects selected
+	 * @param o The pool to choose from
+	 * @return The modifed Combinator
+	 */
+	public Combinator permuteDistinct(final int r, final List<Object> o) {
+		this.factors.add(new Factor(Kind.PERMUTE_DISTINCT, r, o));
+		return this;
+	}
+
+	/**
+	 * <p>Choose <tt>r</tt> objects from the supplied pool, where the same object may be chosen more than once. Tuples
+	 * that contain the same elements as a tuple returned before, but in a different order, are ignored.</p>
+	 *
+	 * <p>Multiplies the number of total results by (N+R-1)!/((N-1)!R!), where N is the count of the input and R is the
+	 * count chosen.</p>
+	 *
+	 * @param r The number of objects chosen
+	 * @param o The pool to choose from
+	 * @return The modifed Combinator
+	 */
+	public Combinator chooseWithRepetition(final int r, final Object... o) {
+		this.factors.add(new Factor(Kind.CHOOSE_WITH_REPETITION, r, Arrays.asList(o)));
+		return this;
+	}
+
+	/**
+	 * <p>Choose <tt>r</tt> objects from the supplied pool, where the same object may be chosen more than once. Tuples
+	 * that contain the same elements as a tuple returned before, but in a different order, are ignored.</p>
+	 *
+	 * <p>Multiplies the number of total results by (N+R-1)!/((N-1)!R!), where N is the count of the input and R is the
+	 * count chosen.</p>
+	 *
+	 * @param r The number of objects chosen
+	 * @param o The pool to choose from
+	 * @return The modifed Combinator
+	 */
+	public Combinator chooseWithRepetition(final int r, final List<Object> o) {
+		this.factors.add(new Factor(Kind.CHOOSE_WITH_REPETITION, r, o));
+		return this;
+	}
+
+	/**
+	 * <p>Select <tt>r</tt> objects from the input, where the same object may be selected more than once: the
+	 * Cartesian power of the input.</p>
+	 *
+	 * <p>Multiplies the number of total results by N^R, where N is the count of the input and R is the count
+	 * selected.</p>
+	 *
+	 * @param r The number of objects selected
+	 * @param o The pool to select from
+	 * @return The modifed Combinator
+	 */
+	public Combinator permuteWithRepetition(final int r, final Object... o) {
+		this.factors.add(new Factor(Kind.PERMUTE_WITH_REPETITION, r, Arrays.asList(o)));
+		return this;
+	}
 
-		Stream stream = Stream.of(t());
+	/**
+	 * <p>Select <tt>r</tt> objects from the input, where the same object may be selected more than once: the
+	 * Cartesian power of the input.</p>
+	 *
+	 * <p>Multiplies the number of total results by N^R, where N is the count of the input and R is the count
+	 * selected.</p>
+	 *
+	 * @param r The number of objects selected
+	 * @param o The pool to select from
+	 * @return The modifed Combinator
+	 */
+	public Combinator permuteWithRepetition(final int r, final List<Object> o) {
+		this.factors.add(new Factor(Kind.PERMUTE_WITH_REPETITION, r, o));
+		return this;
+	}
 
-		for (final Factor factor : this.factors) {
-			stream = pump(stream, factor);
+	/**
+	 * <p>Only produce the tuples whose elements at <tt>positions</tt> pass <tt>predicate</tt>.</p>
+	 *
+	 * <p>Positions count pool elements, as in {@link #indexStream()}, and may refer to factors added later. The
+	 * predicate receives the elements at those positions, in the given order and flattened like a tuple. It is
+	 * evaluated as soon as the factors holding those positions have made their selections, and a rejection skips every
+	 * tuple sharing those selections without producing it. The predicate should only depend on its argument.</p>
+	 *
+	 * <p>Ranks are not affected: {@link #get(long)}, {@link #rankOf(Tuple)} and {@link #size()} ignore where clauses,
+	 * and streams are no longer {@link Spliterator#SIZED}.</p>
+	 *
+	 * @param positions The tuple positions to check
+	 * @param predicate Decides whether tuples with those elements are produced
+	 * @return The modifed Combinator
+	 * @throws IllegalArgumentException If a position is negative, or not less than the number of positions once the
+	 * Combinator is enumerated
+	 */
+	public Combinator where(final int[] positions, final Predicate<Tuple> predicate) {
+		for (final int position : positions) {
+			if (position < 0) {
+				throw new IllegalArgumentException("Negative position: " + position);
+			}
 		}
 
-		return stream;
+		this.clauses.add(new Clause(positions.clone(), Objects.requireNonNull(predicate)));
+		return this;
 	}
 
 	/**
-	 * <p>Iteratively, lazily, return all tuples as dictated by the layering of combinations and permutations.</p>
+	 * <p>Limit how many tuples of nested Combinators are expanded up front.</p>
 	 *
-	 * @return A lazily constructed stream of the resulting tuples
+	 * <p>{@link #compile()} resolves the pools, and so does each call that enumerates this Combinator directly (like
+	 * {@link #stream()} or {@link #forEach(Consumer)}). A nested Combinator is then expanded into an indexed array once,
+	 * and that array serves every factor level and every outer tuple. Expansion stops once the nested Combinators add
+	 * up to more than <tt>limit</tt> tuples; the remaining ones are unranked each time one of their tuples is needed,
+	 * which costs time instead of memory. Other nested suppliers are always expanded, as they can only be enumerated.
+	 * </p>
+	 *
+	 * <p>The limit counts tuples at every level of nesting against one budget: the tuples a nested Combinator expands
+	 * for its own pools count as well as its expanded tuples. A nested Combinator's own limit only lowers the budget
+	 * for its pools. Tuples count the same whatever their width, so the memory taken grows with the width of the
+	 * nested tuples.</p>
+	 *
+	 * <p>Calls that only look at a few tuples, like {@link #get(long)} or {@link #size()}, never expand nested
+	 * Combinators. The default is {@link #DEFAULT_EXPANSION_LIMIT}. A limit of 0 turns expansion off.</p>
+	 *
+	 * @param limit The number of nested tuples to expand
+	 * @return The modifed Combinator
 	 */
-	@Override
-	public Stream<Tuple> get() {
-		return stream();
+	public Combinator expansionLimit(final long limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("Negative expansion limit: " + limit);
+		}
+
+		this.expansion_limit = limit;
+		return this;
 	}
 
-	private static Stream<Tuple> pump(final Stream<Tuple> stream, final Factor factor) {
-		if (factor.count == 1) {
+	/**
+	 * <p>Set the order in which tuples are produced, by {@link #stream()} and every other enumerating method.
+	 * {@link #get(long)} and {@link #rankOf(Tuple)} count positions in the same order.</p>
+	 *
+	 * <p>Nested Combinators keep their own order.</p>
+	 *
+	 * @param order The order of the tuples, {@link Order#LEXICOGRAPHIC} by default
+	 * @return The modifed Combinator
+	 */
+	public Combinator order(final Order order) {
+		this.order = Objects.requireNonNull(order);
+		return this;
+	}
 
-			return stream.flatMap(tuple -> factorToStream(factor, true).map(o -> {
+	/**
+	 * <p>Freeze the current factors into an immutable, thread-safe {@link CompiledCombinator}.</p>
+	 *
+	 * <p>Every other enumerating method of this class compiles implicitly on each call. Compile once instead when the
+	 * same Combinator is streamed repeatedly or from several threads.</p>
+	 *
+	 * @return A snapshot of this Combinator
+	 */
+	public CompiledCombinator compile() {
+		return new CompiledCombinator(this);
+	}
 
-				final Object[] temp = Arrays.copyOf(tuple.o, tuple.o.length + o.o.length);
-				System.arraycopy(o.o, 0, temp, tuple.o.length, o.o.length);
-				return t(temp);
+	/**
+	 * <p>Iteratively, lazily, return all tuples as dictated by the layering of combinations and permutations.</p>
+	 *
+	 * <p>The stream is {@link Spliterator#SIZED} unless the number of tuples exceeds Long.MAX_VALUE or there are
+	 * {@link #where(int[], Predicate)} clauses. It splits by halving its range of ranks, so {@link Stream#parallel()}
+	 * divides the tuples evenly between threads.</p>
+	 *
+	 * <p>Pools are indexed with ints. A pool of more than Integer.MAX_VALUE elements, which only nested Combinators can
+	 * make, is instead scanned element by element for each slot, lazily and sequentially, in lexicographic order. Such
+	 * pools can only be streamed: methods that rank, count or index tuples throw {@link ArithmeticException}, and so
+	 * does this one in {@link Order#GRAY} order or with {@link #permuteDistinct(int, Object...)} factors.</p>
+	 *
+	 * @return A lazily constructed stream of the resulting tuples
+	 */
+	public Stream<Tuple> stream() {
+		return compile().stream();
+	}
 
-			}));
+	/**
+	 * <p>Return the tuples from position <tt>from</tt> up to <tt>to</tt> of {@link #stream()}.</p>
+	 *
+	 * <p>The stream starts by unranking <tt>from</tt>, as {@link #get(long)} does, so the tuples before it cost
+	 * nothing.</p>
+	 *
+	 * @param from The rank of the first tuple
+	 * @param to The rank after the last tuple
+	 * @return A lazily constructed stream of the tuples in the range
+	 * @throws IndexOutOfBoundsException If the range is not within [0, {@link #size()}]
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public Stream<Tuple> stream(final long from, final long to) {
+		return compile().stream(from, to);
+	}
 
-		} else if (factor.combine) {
+	/**
+	 * <p>Return a {@link Cursor} at the first tuple, to enumerate the tuples in a way that can be resumed.</p>
+	 *
+	 * @return A cursor at position 0
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public Cursor cursor() {
+		return cursor(0);
+	}
 
-			return stream.flatMap(tuple -> {
+	/**
+	 * <p>Return a {@link Cursor} at the tuple of rank <tt>position</tt>, as saved by {@link Cursor#position()}.
+	 * Resuming only costs unranking <tt>position</tt>, as {@link #get(long)} does.</p>
+	 *
+	 * @param position The rank of the first tuple the cursor returns
+	 * @return A cursor at that position
+	 * @throws IndexOutOfBoundsException If the position is not within [0, {@link #size()}]
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public Cursor cursor(final long position) {
+		return compile().cursor(position);
+	}
 
-				final int[] count = { 0 };
+	/**
+	 * <p>Return a {@link Cursor} at the position saved by {@link Cursor#checkpoint()}, checking that the checkpoint
+	 * was taken from a Combinator of the same shape.</p>
+	 *
+	 * @param checkpoint A checkpoint taken from a cursor of an equal Combinator
+	 * @return A cursor at the position of the checkpoint
+	 * @throws IllegalArgumentException If the checkpoint is malformed or was taken from a Combinator of a different
+	 * shape
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public Cursor resume(final byte[] checkpoint) {
+		return compile().resume(checkpoint);
+	}
 
-				final Stream<Tuple> stream2 = factorToStream(factor, true).map(o -> {
+	/**
+	 * <p>Split the tuples into <tt>count</tt> contiguous ranges of ranks, which differ in size by one at most, and
+	 * return the range at <tt>index</tt>.</p>
+	 *
+	 * <p>This is meant for spreading one enumeration over several processes, each one taking a different index. A
+	 * shard starts directly at its first rank, so together the shards cost about as much as a single enumeration.
+	 * The shard is compiled once, see {@link #compile()}; each call of {@link TupleSupplier#get()} streams it anew.
+	 * </p>
+	 *
+	 * @param index The shard to return, in [0, count)
+	 * @param count The number of shards
+	 * @return A supplier of the tuples of one shard
+	 * @throws IllegalArgumentException If <tt>count</tt> is not positive, or <tt>index</tt> not in [0, count)
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public TupleSupplier shard(final int index, final int count) {
+		return compile().shard(index, count);
+	}
 
-					count[0]++;
+	/**
+	 * <p>Return the tuples of {@link #stream()} in blocks of <tt>block_size</tt>, each a row-major Object[][] holding
+	 * one tuple's elements per row. The last block holds whatever remains and may be shorter.</p>
+	 *
+	 * <p>Each block is filled by one loop that steps the factors in place and copies the elements of each tuple
+	 * straight into its row, without creating {@link Tuple}s, so consumers doing little work per tuple pay the
+	 * per-element cost of a stream once per block. Without where clauses the blocks are independent: each one starts
+	 * by unranking its first tuple, so parallel streams split them evenly.</p>
+	 *
+	 * @param block_size The number of tuples in each block
+	 * @return A lazily constructed stream of blocks
+	 * @throws IllegalArgumentException If <tt>block_size</tt> is not positive
+	 */
+	@Override
+	public Stream<Object[][]> batches(final int block_size) {
+		return compile().batches(block_size);
+	}
 
-					final Object[] temp = Arrays.copyOf(tuple.o, tuple.o.length + o.o.length);
-					System.arraycopy(o.o, 0, temp, tuple.o.length, o.o.length);
-					return t(temp);
+	/**
+	 * <p>Like {@link #batches(int)}, but each block is columnar: one array per tuple position, holding that position's
+	 * element of every tuple in the block, for code that works on one position at a time. A block has as many columns
+	 * as its widest tuple has elements; columns past the end of a narrower tuple hold null for it.</p>
+	 *
+	 * @param block_size The number of tuples in each block
+	 * @return A lazily constructed stream of column-major blocks
+	 * @throws IllegalArgumentException If <tt>block_size</tt> is not positive
+	 */
+	@Override
+	public Stream<Object[][]> columnBatches(final int block_size) {
+		return compile().columnBatches(block_size);
+	}
 
-				});
+	/**
+	 * <p>Like {@link #stream()}, but each element holds the pool indexes a tuple is assembled from instead of the tuple.
+	 * The indexes of all factors are concatenated, so a choose-two followed by a permute-three gives arrays of five.</p>
+	 *
+	 * <p>An index counts elements of the pool after nested suppliers are expanded, so for pools without nested
+	 * suppliers it is the position of the argument. No tuples or Object[]s are created.</p>
+	 *
+	 * @return A lazily constructed stream of fresh index arrays
+	 */
+	public Stream<int[]> indexStream() {
+		return compile().indexStream();
+	}
 
-				return pump(stream2, new Factor(
-						true, factor.count - 1, () -> factor.removed.get() + count[0], factor.black_indexes, factor.objects
-				));
+	/**
+	 * <p>The combinations of a Combinator made of a single choose factor over at most 64 elements, each as a mask with
+	 * bit i set if pool element i is chosen. No objects are created per combination.</p>
+	 *
+	 * <p>Masks come in increasing unsigned order, which is colexicographic rather than the order of {@link #stream()}
+	 * and independent of {@link #order(Order)}. Each step is Gosper's hack: a few word operations. Use
+	 * {@link #decode(long...)} to turn a mask back into a tuple.</p>
+	 *
+	 * @return A lazily constructed stream of the masks of all combinations
+	 * @throws IllegalStateException If the Combinator is not a single choose factor over at most 64 elements, or has
+	 * where clauses
+	 * @throws ArithmeticException If the number of combinations does not fit in a long
+	 */
+	public LongStream maskStream() {
+		return compile().maskStream();
+	}
 
-			});
+	/**
+	 * <p>Like {@link #maskStream()}, for pools of any size: each mask is a fresh long[] of 64 bits per word, least
+	 * significant word first.</p>
+	 *
+	 * @return A lazily constructed stream of fresh masks of all combinations
+	 * @throws IllegalStateException If the Combinator is not a single choose factor, or has where clauses
+	 * @throws ArithmeticException If the number of combinations does not fit in a long
+	 */
+	public Stream<long[]> wideMaskStream() {
+		return compile().wideMaskStream();
+	}
 
-		} else {
+	/**
+	 * <p>Return the tuple of the pool elements whose bits are set in <tt>mask</tt>, as a mask of
+	 * {@link #maskStream()} or {@link #wideMaskStream()} selects them. The tuple is the one {@link #stream()} produces
+	 * for the same combination.</p>
+	 *
+	 * @param mask The words of a mask, least significant first
+	 * @return The tuple of the chosen pool elements
+	 * @throws IllegalStateException If the Combinator is not a single choose factor, or has where clauses
+	 * @throws IllegalArgumentException If the mask does not select as many pool elements as the factor chooses
+	 */
+	public Tuple decode(final long... mask) {
+		return new CompiledCombinator(this, 0).decode(mask);
+	}
 
-			return stream.flatMap(tuple -> {
+	/**
+	 * <p>Pass the pool indexes of every tuple to <tt>action</tt>, in {@link #stream()} order, as {@link #indexStream()}
+	 * would, but without allocating per tuple. The same array is refilled for each tuple, so it must not be kept
+	 * beyond the call.</p>
+	 *
+	 * @param action Receives the reused index array of each tuple
+	 */
+	public void forEachIndex(final Consumer<int[]> action) {
+		compile().forEachIndex(action);
+	}
 
-				final int[] count = { -1 };
+	/**
+	 * <p>Pass every tuple to <tt>action</tt>, in {@link #stream()} order, without allocating per tuple.</p>
+	 *
+	 * <p>Each tuple is written into one preallocated buffer and handed out as a read-only {@link TupleView}, which is
+	 * only valid during the call. Use {@link TupleView#toTuple()} to keep a tuple. Only the factors that changed since
+	 * the last tuple are written again, so mostly just the elements of the last factor are. Elements of nested
+	 * Combinators past the {@link #expansionLimit(long)} are still unranked into fresh tuples before they are copied
+	 * into the buffer.</p>
+	 *
+	 * @param action Receives the reused view of each tuple
+	 */
+	public void forEach(final Consumer<TupleView> action) {
+		compile().forEach(action);
+	}
 
-				final Stream<Tuple> stream2 = factorToStream(factor, false).flatMap(o -> {
+	/**
+	 * <p>Report how the pool indexes change from tuple to tuple, in {@link #stream()} order, without allocating per
+	 * tuple.</p>
+	 *
+	 * <p>The first tuple reports every position, with -1 as the previous index. Each following tuple reports only the
+	 * positions whose index differs from the tuple before it, then {@link ChangeConsumer#tuple()} is called. Only the
+	 * factors that stepped are compared, which usually is just the last one, so the cost per tuple does not grow with
+	 * the number of factors. Combined with {@link Order#GRAY} each tuple reports at most a few changes.</p>
+	 *
+	 * @param consumer Receives the changes of each tuple
+	 */
+	public void forEachChange(final ChangeConsumer consumer) {
+		compile().forEachChange(consumer);
+	}
 
-					count[0]++;
+	/**
+	 * <p>Visit every tuple, in {@link #stream()} order, as the leaves of a tree with one level per factor.</p>
+	 *
+	 * <p>Before the tuples sharing the selections of factors 0 to i are visited, {@link PrefixVisitor#enter(int,
+	 * TupleView)} is called once with those selections as the prefix, and {@link PrefixVisitor#exit(int)} once after.
+	 * Work that only depends on a prefix can be done on entering it, instead of for every tuple. As with
+	 * {@link #forEach(Consumer)}, one buffer is reused and nothing is allocated per tuple.</p>
+	 *
+	 * @param visitor Receives the prefixes and tuples
+	 */
+	public void walk(final PrefixVisitor visitor) {
+		compile().walk(visitor);
+	}
 
-					if (o == PLACEHOLDER) {
-						return (Stream<Tuple>) (Object) Stream.empty();
-					}
+	/**
+	 * <p>Iteratively, lazily, return all tuples as dictated by the layering of combinations and permutations.</p>
+	 *
+	 * @return A lazily constructed stream of the resulting tuples
+	 */
+	@Override
+	public Stream<Tuple> get() {
+		return stream();
+	}
 
-					final Object[] temp = Arrays.copyOf(tuple.o, tuple.o.length + o.o.length);
-					System.arraycopy(o.o, 0, temp, tuple.o.length, o.o.length);
-					return Stream.of(t(temp));
+	/**
+	 * <p>Count the tuples {@link #stream()} produces, without producing them. Where clauses are ignored.</p>
+	 *
+	 * <p>Each choose factor contributes N!/((N-R)!R!) and each permute factor N!/(N-R)!, where N is the count of its
+	 * pool after nested suppliers are expanded. Nested suppliers are resolved once per call, see
+	 * {@link #expansionLimit(long)}.</p>
+	 *
+	 * @return The number of tuples
+	 * @throws ArithmeticException If the number of tuples does not fit in a long, see {@link #exactSize()}
+	 */
+	public long size() {
+		return new CompiledCombinator(this, 0).size();
+	}
 
-				});
+	/**
+	 * <p>Count the tuples {@link #stream()} produces, without producing them or overflowing.</p>
+	 *
+	 * @return The exact number of tuples
+	 * @throws ArithmeticException If a pool holds more than Integer.MAX_VALUE elements, see {@link #stream()}
+	 * @see #size()
+	 */
+	public BigInteger exactSize() {
+		return new CompiledCombinator(this, 0).exactSize();
+	}
 
-				return pump(stream2, new Factor(false, factor.count - 1, factor.removed, () -> {
-					final HashSet<Integer> black_copy = new HashSet<>(factor.black_indexes.get());
-					black_copy.add(count[0]);
-					return black_copy;
-				}, factor.objects
-				));
+	/**
+	 * <p>Return the tuple at position <tt>rank</tt> of {@link #stream()}, without enumerating the tuples before it.</p>
+	 *
+	 * <p>Choose factors are unranked through the combinatorial number system, permute factors through the factorial
+	 * number system (Lehmer codes), or their {@link Order#GRAY} counterparts, and the factors are combined as the
+	 * digits of a mixed radix number, the first factor being the most significant. Nested suppliers are resolved once
+	 * per call, see {@link #expansionLimit(long)}.</p>
+	 *
+	 * @param rank The zero-based position of the tuple
+	 * @return The tuple at that position
+	 * @throws IndexOutOfBoundsException If the rank is negative or not less than the number of tuples
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public Tuple get(final long rank) {
+		return new CompiledCombinator(this, 0).get(rank);
+	}
 
-			});
+	/**
+	 * <p>Draw <tt>k</tt> distinct tuples uniformly at random, without enumerating the others.</p>
+	 *
+	 * <p>Random ranks are drawn from a {@link SplittableRandom} seeded with <tt>seed</tt> and unranked as by
+	 * {@link #get(long)}, so the same seed gives the same sample. The tuples come in the order they were drawn. Each
+	 * draw takes constant time besides unranking, however large the Combinator, but remembers a swapped rank of
+	 * around 80 bytes, so the stream holds O(k) memory while it is consumed. Tuples rejected by
+	 * {@link #where(int[], Predicate)} clauses are drawn again, so with clauses fewer than <tt>k</tt> tuples are
+	 * returned only if fewer pass.</p>
+	 *
+	 * @param k The number of tuples to draw
+	 * @param seed The seed of the random generator
+	 * @return A lazily drawn stream of at most <tt>k</tt> distinct tuples
+	 * @throws IllegalArgumentException If <tt>k</tt> is negative or more than the number of tuples
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public Stream<Tuple> sample(final long k, final long seed) {
+		return compile().sample(k, seed);
+	}
 
-		}
+	/**
+	 * <p>Draw <tt>k</tt> tuples uniformly at random and independently of each other, so tuples may repeat. Otherwise
+	 * as {@link #sample(long, long)}. With {@link #where(int[], Predicate)} clauses that reject every tuple, this does
+	 * not terminate.</p>
+	 *
+	 * @param k The number of tuples to draw
+	 * @param seed The seed of the random generator
+	 * @return A lazily drawn stream of <tt>k</tt> tuples
+	 * @throws IllegalArgumentException If <tt>k</tt> is negative, or positive while there are no tuples
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public Stream<Tuple> sampleWithReplacement(final long k, final long seed) {
+		return compile().sampleWithReplacement(k, seed);
 	}
 
-	private static Stream<Tuple> factorToStream(final Factor factor, final boolean skip_empty) {
-		final int[] count = { 0 };
-		final Set<Integer> black_indexes = factor.black_indexes.get();
+	/**
+	 * <p>Return the position of <tt>tuple</tt> in {@link #stream()}, the inverse of {@link #get(long)}.</p>
+	 *
+	 * <p>The tuple is split back into pool elements factor by factor, trying candidates in pool order, so the same
+	 * mixed radix rank that {@link #get(long)} decodes is rebuilt. Nested Combinators are matched the same way. If a
+	 * pool contains equal elements, the tuple occurs more than once and the lowest position is returned.</p>
+	 *
+	 * @param tuple The tuple to look for
+	 * @return The zero-based position of the tuple, or -1 if it is never produced
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public long rankOf(final Tuple tuple) {
+		return new CompiledCombinator(this, 0).rankOf(tuple);
+	}
 
-		count[0] = 0;
+	/**
+	 * <p>The orders a Combinator can produce its tuples in, see {@link #order(Order)}.</p>
+	 *
+	 * <p>Either way the factors are combined as the digits of a mixed radix number, the first factor being the most
+	 * significant, so the last factor changes fastest. The orders differ in how each factor steps through its own
+	 * selections.</p>
+	 */
+	public enum Order {
+
+		/** Selections in ascending order of their pool indexes, as shown in the {@link Combinator} examples */
+		LEXICOGRAPHIC,
+
+		/**
+		 * <p>Minimal change order, for consumers that update a result incrementally from one tuple to the next.</p>
+		 *
+		 * <p>Choose factors follow the revolving door order: each selection replaces one pool index of the one before
+		 * it, keeping the indexes ascending, so at most two of its slots change. Permute factors follow the
+		 * Steinhaus-Johnson-Trotter order: each selection swaps two adjacent slots of the one before it. A permute
+		 * factor that selects fewer than all of its pool does so for each subset in turn, and moving on to the next
+		 * subset changes up to four slots.</p>
+		 *
+		 * <p>Both orders are cyclic, so when a factor carries into the factor before it, its last selection turns
+		 * into its first with the same small change. Nested Combinators are elements of the pool, and change as a
+		 * whole. Factors with repetition or equal elements keep their lexicographic order.</p>
+		 */
+		GRAY
+	}
 
-		return factor.objects.stream().flatMap(o -> {
-			if (o instanceof TupleSupplier) {
-				return ((TupleSupplier) o).get();
-			} else if (o instanceof Tuple) {
-				return Stream.of((Tuple) o);
-			} else {
-				return Stream.of(t(o));
-			}
-		}).skip(factor.removed.get()).flatMap(o -> {
-			if (black_indexes.contains(count[0]++)) {
-				if (skip_empty) {
-					return Stream.empty();
-				} else {
-					return Stream.of(PLACEHOLDER);
-				}
-			}
+	static class Clause {
+		final int[] positions;
+		final Predicate<Tuple> predicate;
+
+		Clause(final int[] positions, final Predicate<Tuple> predicate) {
+			this.positions = positions;
+			this.predicate = predicate;
+		}
+	}
 
-			return Stream.of(o);
-		});
+	/**
+	 * <p>How a factor selects from its pool.</p>
+	 */
+	enum Kind {
+		CHOOSE, PERMUTE, CHOOSE_WITH_REPETITION, PERMUTE_WITH_REPETITION, PERMUTE_DISTINCT
 	}
 
 	static class Factor {
-		final boolean combine;
+		final Kind kind;
 		final int count;
-		final Supplier<Integer> removed;
-		final Supplier<Set<Integer>> black_indexes;
 		final List<Object> objects;
 
-		Factor(
-				final boolean combine, final int count, final Supplier<Integer> removed,
-				final Supplier<Set<Integer>> black_indexes, final List<Object> objects
-		) {
-			this.combine = combine;
+		Factor(final Kind kind, final int count, final List<Object> objects) {
+			this.kind = kind;
 			this.count = count;
-			this.removed = removed;
-			this.black_indexes = black_indexes;
 			this.objects = objects;
 		}
 	}
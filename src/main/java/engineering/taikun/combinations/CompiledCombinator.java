@@ -0,0 +1,1058 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static engineering.taikun.combinations.Tuple.t;
+
+/**
+ * <p>An immutable snapshot of a {@link Combinator}, created by {@link Combinator#compile()}.</p>
+ *
+ * <p>Compiling resolves everything a Combinator would otherwise redo on each call: pools are copied and flattened,
+ * nested suppliers are expanded (see {@link Combinator#expansionLimit(long)}), and sizes, widths and the binomial and
+ * factorial tables of the factors are computed. Later changes to the Combinator or to the pools it was given do not
+ * affect the snapshot.</p>
+ *
+ * <p>A CompiledCombinator is thread-safe. Any number of threads may stream from one instance at the same time, and
+ * each call only allocates its own traversal state.</p>
+ *
+ * <p>The rank of a tuple is a mixed radix number with one digit per factor, the first factor being the most
+ * significant, which is the order {@link #stream()} produces tuples in. How each factor ranks its selections depends
+ * on the {@link Combinator.Order} of the Combinator.</p>
+ */
+public final class CompiledCombinator implements TupleSupplier {
+
+	final Pool[] pools;
+	final Selector[] selectors;
+	final Combinator.Kind[] kinds;
+
+	final Combinator.Order order;
+
+	/** The number of pool elements in each tuple */
+	final int slots;
+
+	/** The largest width of any tuple */
+	final int maxWidth;
+
+	/** The number of nested Combinator tuples expanded into the pools, at every level of nesting */
+	final long expanded;
+
+	/**
+	 * Whether every pool fits the int indexes of the selectors. If not, the selectors are null and the tuples can only
+	 * be streamed, see {@link ScanSpliterator}
+	 */
+	private final boolean indexed;
+
+	/** The exact number of tuples, or null if not indexed */
+	final BigInteger count;
+
+	/** The number of tuples, or -1 if that does not fit in a long or is not known */
+	final long size;
+
+	/** The where clauses, ordered by the factor that decides them */
+	final Combinator.Clause[] clauses;
+
+	/** Per clause: the last factor it depends on */
+	private final int[] deciders;
+
+	/** Per tuple position: the factor it belongs to, and its slot within that factor */
+	final int[] positionFactors;
+	final int[] positionSlots;
+
+	CompiledCombinator(final Combinator combinator) {
+		this(combinator, combinator.expansion_limit);
+	}
+
+	/**
+	 * @param combinator The Combinator to take the factors from
+	 * @param expansion_limit The number of nested Combinator tuples that may be expanded, see
+	 * {@link Combinator#expansionLimit(long)}
+	 */
+	CompiledCombinator(final Combinator combinator, final long expansion_limit) {
+		this(combinator, new long[] { expansion_limit });
+	}
+
+	/**
+	 * @param combinator The Combinator to take the factors from
+	 * @param budget The number of nested Combinator tuples that may still be expanded, shared with the Combinators
+	 * this one is nested in and decremented as they are
+	 */
+	CompiledCombinator(final Combinator combinator, final long[] budget) {
+		final List<Combinator.Factor> factors = combinator.factors;
+		final long granted = budget[0];
+
+		this.pools = new Pool[factors.size()];
+		this.selectors = new Selector[factors.size()];
+		this.kinds = new Combinator.Kind[factors.size()];
+		this.order = combinator.order;
+
+		boolean indexed = true;
+		int slots = 0;
+		int max_width = 0;
+
+		for (int i = 0; i < this.pools.length; i++) {
+			final Combinator.Factor factor = factors.get(i);
+
+			if (factor.count < 0) {
+				throw new IllegalArgumentException("Negative selection count: " + factor.count);
+			}
+
+			this.pools[i] = new Pool(factor.objects, budget);
+			this.kinds[i] = factor.kind;
+
+			indexed &= this.pools[i].indexed();
+			slots += factor.count;
+			max_width = Math.addExact(max_width, Math.multiplyExact(factor.count, this.pools[i].maxWidth));
+		}
+
+		BigInteger count = BigInteger.ONE;
+
+		for (int i = 0; indexed && i < this.pools.length; i++) {
+			this.selectors[i] = Selector.of(this.kinds[i], this.order, factors.get(i).count, this.pools[i]);
+			count = count.multiply(this.selectors[i].count);
+		}
+
+		this.indexed = indexed;
+		this.slots = slots;
+		this.maxWidth = max_width;
+		this.expanded = granted - budget[0];
+		this.count = indexed ? count : null;
+		this.size = indexed && count.bitLength() < Long.SIZE ? count.longValue() : -1;
+
+		this.positionFactors = new int[slots];
+		this.positionSlots = new int[slots];
+
+		for (int i = 0, position = 0; i < this.pools.length; i++) {
+			for (int j = 0; j < factors.get(i).count; j++, position++) {
+				this.positionFactors[position] = i;
+				this.positionSlots[position] = j;
+			}
+		}
+
+		final int clause_count = combinator.clauses.size();
+		final int[] deciders = new int[clause_count];
+
+		for (int i = 0; i < clause_count; i++) {
+			for (final int position : combinator.clauses.get(i).positions) {
+				if (position >= slots) {
+					throw new IllegalArgumentException("Position " + position + " outside of [0, " + slots + ')');
+				}
+
+				deciders[i] = Math.max(deciders[i], this.positionFactors[position]);
+			}
+		}
+
+		// clauses decided by earlier factors come first, so a rejection cuts the largest subtree
+		final Integer[] order = new Integer[clause_count];
+
+		for (int i = 0; i < clause_count; i++) {
+			order[i] = i;
+		}
+
+		Arrays.sort(order, Comparator.comparingInt(i -> deciders[i]));
+
+		this.clauses = new Combinator.Clause[clause_count];
+		this.deciders = new int[clause_count];
+
+		for (int i = 0; i < clause_count; i++) {
+			this.clauses[i] = combinator.clauses.get(order[i]);
+			this.deciders[i] = deciders[order[i]];
+		}
+	}
+
+	/**
+	 * <p>As {@link Combinator#stream()}.</p>
+	 *
+	 * @return A lazily constructed stream of the resulting tuples
+	 */
+	public Stream<Tuple> stream() {
+		if (!this.indexed) {
+			// only lexicographic order can be scanned, and equal elements could only be told apart by counting them
+			if (this.order != Combinator.Order.LEXICOGRAPHIC ||
+					Arrays.asList(this.kinds).contains(Combinator.Kind.PERMUTE_DISTINCT)) {
+				throw new ArithmeticException("Pool of more than Integer.MAX_VALUE elements");
+			}
+
+			return StreamSupport.stream(new ScanSpliterator(this), false);
+		}
+
+		return StreamSupport.stream(spliterator(this::assemble), false);
+	}
+
+	/**
+	 * <p>As {@link Combinator#stream(long, long)}.</p>
+	 *
+	 * @param from The rank of the first tuple
+	 * @param to The rank after the last tuple
+	 * @return A lazily constructed stream of the tuples in the range
+	 */
+	public Stream<Tuple> stream(final long from, final long to) {
+		final long size = size();
+
+		if (from < 0 || from > to || to > size) {
+			throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") outside of [0, " + size + ')');
+		}
+
+		return StreamSupport.stream(new RankSpliterator<>(this, from, to, this::assemble), false);
+	}
+
+	/**
+	 * <p>As {@link Combinator#cursor(long)}.</p>
+	 *
+	 * @param position The rank of the first tuple the cursor returns
+	 * @return A cursor at that position
+	 */
+	public Cursor cursor(final long position) {
+		return new Cursor(this, position);
+	}
+
+	/**
+	 * <p>As {@link Combinator#resume(byte[])}.</p>
+	 *
+	 * @param checkpoint A checkpoint taken by {@link Cursor#checkpoint()}
+	 * @return A cursor at the position of the checkpoint
+	 */
+	public Cursor resume(final byte[] checkpoint) {
+		return Cursor.resume(this, checkpoint);
+	}
+
+	/**
+	 * <p>A hash of the shape of this Combinator, stable across processes, see {@link Cursor#checkpoint()}.</p>
+	 */
+	long fingerprint() {
+		checkIndexed();
+
+		// FNV-1a, a long at a time
+		long hash = 0xcbf29ce484222325L;
+
+		hash = (hash ^ this.order.ordinal()) * 0x100000001b3L;
+
+		for (int i = 0; i < this.selectors.length; i++) {
+			hash = (hash ^ this.kinds[i].ordinal() + 1) * 0x100000001b3L;
+			hash = (hash ^ this.selectors[i].r) * 0x100000001b3L;
+			hash = (hash ^ this.selectors[i].n) * 0x100000001b3L;
+			hash = (hash ^ this.pools[i].maxWidth) * 0x100000001b3L;
+		}
+
+		return (hash ^ this.clauses.length) * 0x100000001b3L;
+	}
+
+	/**
+	 * <p>As {@link Combinator#shard(int, int)}.</p>
+	 *
+	 * @param index The shard to return, in [0, count)
+	 * @param count The number of shards
+	 * @return A supplier of the tuples of one shard
+	 */
+	public TupleSupplier shard(final int index, final int count) {
+		if (count < 1 || index < 0 || index >= count) {
+			throw new IllegalArgumentException("Shard " + index + " of " + count);
+		}
+
+		final long size = size();
+
+		// the first size % count shards take one tuple more
+		final long from = size / count * index + Math.min(index, size % count);
+		final long to = size / count * (index + 1) + Math.min(index + 1, size % count);
+
+		return () -> stream(from, to);
+	}
+
+	/**
+	 * <p>As {@link Combinator#stream()}.</p>
+	 *
+	 * @return A lazily constructed stream of the resulting tuples
+	 */
+	@Override
+	public Stream<Tuple> get() {
+		return stream();
+	}
+
+	/**
+	 * <p>As {@link Combinator#batches(int)}.</p>
+	 *
+	 * @param block_size The number of tuples in each block
+	 * @return A lazily constructed stream of blocks
+	 */
+	@Override
+	public Stream<Object[][]> batches(final int block_size) {
+		return blocks(block_size, false);
+	}
+
+	/**
+	 * <p>As {@link Combinator#columnBatches(int)}.</p>
+	 *
+	 * @param block_size The number of tuples in each block
+	 * @return A lazily constructed stream of column-major blocks
+	 */
+	@Override
+	public Stream<Object[][]> columnBatches(final int block_size) {
+		return blocks(block_size, true);
+	}
+
+	private Stream<Object[][]> blocks(final int block_size, final boolean columnar) {
+		Batches.check(block_size);
+
+		if (this.clauses.length > 0 || this.size < 0) {
+			// the ranks of the blocks are unknown, walk them in order
+			return Batches.of(stream(), block_size, columnar);
+		}
+
+		final long blocks = (this.size + block_size - 1) / block_size;
+
+		return LongStream.range(0, blocks).mapToObj(b -> {
+			final long rank = b * block_size;
+			final int[][] states = newStates();
+			seek(rank, states);
+
+			return block(states, (int) Math.min(block_size, this.size - rank), columnar);
+		});
+	}
+
+	/**
+	 * <p>Fill a block with <tt>count</tt> tuples, starting at the one the states are positioned at.</p>
+	 */
+	private Object[][] block(final int[][] states, final int count, final boolean columnar) {
+		final Object[] buffer = new Object[this.maxWidth];
+		final Object[][] rows = columnar ? null : new Object[count][];
+		Object[][] columns = columnar ? new Object[this.maxWidth][count] : null;
+		int widest = 0;
+
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				next(states);
+			}
+
+			final int width = fill(states, buffer);
+
+			if (columnar) {
+				for (int j = 0; j < width; j++) {
+					columns[j][i] = buffer[j];
+				}
+
+				widest = Math.max(widest, width);
+			} else {
+				rows[i] = Arrays.copyOf(buffer, width);
+			}
+		}
+
+		if (!columnar) {
+			return rows;
+		}
+
+		// nested elements may make every tuple narrower than the widest possible one
+		if (widest < columns.length) {
+			columns = Arrays.copyOf(columns, widest);
+		}
+
+		return columns;
+	}
+
+	/**
+	 * <p>As {@link Combinator#indexStream()}.</p>
+	 *
+	 * @return A lazily constructed stream of fresh index arrays
+	 */
+	public Stream<int[]> indexStream() {
+		return StreamSupport.stream(spliterator(states -> indexes(states, new int[this.slots])), false);
+	}
+
+	/**
+	 * <p>As {@link Combinator#maskStream()}.</p>
+	 *
+	 * @return A lazily constructed stream of the masks of all combinations
+	 * @throws IllegalStateException If this is not a single choose factor over at most 64 elements without where
+	 * clauses
+	 */
+	public LongStream maskStream() {
+		final Selector selector = maskable();
+
+		if (selector.n > Long.SIZE) {
+			throw new IllegalStateException("Pool of " + selector.n + " elements does not fit in a long mask");
+		}
+
+		return StreamSupport.longStream(new MaskSpliterator(selector.r, 0, size()), false);
+	}
+
+	/**
+	 * <p>As {@link Combinator#wideMaskStream()}.</p>
+	 *
+	 * @return A lazily constructed stream of fresh masks of all combinations
+	 * @throws IllegalStateException If this is not a single choose factor without where clauses
+	 */
+	public Stream<long[]> wideMaskStream() {
+		final Selector selector = maskable();
+
+		// iterate takes its seed eagerly, and there is no first mask to seed with when r > n
+		if (size() == 0) {
+			return Stream.empty();
+		}
+
+		return Stream.iterate(MaskSpliterator.first(selector.n, selector.r), mask -> MaskSpliterator.next(mask.clone()))
+				.limit(size());
+	}
+
+	/**
+	 * <p>As {@link Combinator#decode(long...)}.</p>
+	 *
+	 * @param mask The words of a mask, least significant first
+	 * @return The tuple of the pool elements whose bits are set
+	 * @throws IllegalStateException If this is not a single choose factor without where clauses
+	 * @throws IllegalArgumentException If the mask does not select as many pool elements as the factor chooses
+	 */
+	public Tuple decode(final long... mask) {
+		final Selector selector = maskable();
+		final int[][] states = newStates();
+		int slot = 0;
+
+		for (int w = 0; w < mask.length; w++) {
+			for (long word = mask[w]; word != 0; word &= word - 1) {
+				final int index = w * Long.SIZE + Long.numberOfTrailingZeros(word);
+
+				if (slot == selector.r || index >= selector.n) {
+					throw new IllegalArgumentException("Mask " + Arrays.toString(mask) + " is no " + selector.r +
+							"-combination of " + selector.n);
+				}
+
+				states[0][slot++] = index;
+			}
+		}
+
+		if (slot != selector.r) {
+			throw new IllegalArgumentException("Mask " + Arrays.toString(mask) + " is no " + selector.r +
+					"-combination of " + selector.n);
+		}
+
+		return assemble(states);
+	}
+
+	private Selector maskable() {
+		checkIndexed();
+
+		if (this.selectors.length != 1 || this.kinds[0] != Combinator.Kind.CHOOSE || this.clauses.length > 0) {
+			throw new IllegalStateException("Masks need a single choose factor without where clauses");
+		}
+
+		return this.selectors[0];
+	}
+
+	/**
+	 * <p>As {@link Combinator#forEachIndex(Consumer)}.</p>
+	 *
+	 * @param action Receives the reused index array of each tuple
+	 */
+	public void forEachIndex(final Consumer<int[]> action) {
+		final int[][] states = newStates();
+		final int[] indexes = new int[this.slots];
+
+		forEach(states, () -> action.accept(indexes(states, indexes)));
+	}
+
+	/**
+	 * <p>As {@link Combinator#forEach(Consumer)}.</p>
+	 *
+	 * @param action Receives the reused view of each tuple
+	 */
+	public void forEach(final Consumer<TupleView> action) {
+		final int[][] states = newStates();
+		final TupleView view = new TupleView(new Object[this.maxWidth]);
+
+		if (!first(states)) {
+			return;
+		}
+
+		// the width of the tuple up to the end of each factor
+		final int[] ends = new int[this.selectors.length];
+
+		for (int stepped = 0; stepped >= 0; stepped = next(states)) {
+			// the buffer still holds the elements of the factors before the one that stepped
+			for (int i = stepped; i < ends.length; i++) {
+				ends[i] = fill(states, view.o, i, i == 0 ? 0 : ends[i - 1]);
+			}
+
+			view.width = ends.length == 0 ? 0 : ends[ends.length - 1];
+			action.accept(view);
+		}
+	}
+
+	/**
+	 * <p>As {@link Combinator#forEachChange(ChangeConsumer)}.</p>
+	 *
+	 * @param consumer Receives the changes of each tuple
+	 */
+	public void forEachChange(final ChangeConsumer consumer) {
+		final int[][] states = newStates();
+		final int[] indexes = new int[this.slots];
+
+		if (!first(states)) {
+			return;
+		}
+
+		indexes(states, indexes);
+
+		for (int i = 0; i < this.slots; i++) {
+			consumer.change(i, -1, indexes[i]);
+		}
+
+		consumer.tuple();
+
+		// the slots of each factor start where those of the factors before it end
+		final int[] starts = new int[this.selectors.length];
+
+		for (int i = 1; i < starts.length; i++) {
+			starts[i] = starts[i - 1] + this.selectors[i - 1].r;
+		}
+
+		for (int factor = next(states); factor >= 0; factor = next(states)) {
+			// only the factors from the one that stepped on can differ
+			for (int i = factor; i < this.selectors.length; i++) {
+				for (int j = 0; j < this.selectors[i].r; j++) {
+					final int previous = indexes[starts[i] + j];
+
+					if (previous != states[i][j]) {
+						indexes[starts[i] + j] = states[i][j];
+						consumer.change(starts[i] + j, previous, states[i][j]);
+					}
+				}
+			}
+
+			consumer.tuple();
+		}
+	}
+
+	/**
+	 * <p>As {@link Combinator#walk(PrefixVisitor)}.</p>
+	 *
+	 * @param visitor Receives the prefixes and tuples
+	 */
+	public void walk(final PrefixVisitor visitor) {
+		final int[][] states = newStates();
+		final TupleView view = new TupleView(new Object[this.maxWidth]);
+
+		if (!first(states)) {
+			return;
+		}
+
+		// the width of the prefix ending with each factor
+		final int[] ends = new int[this.selectors.length];
+		final int last = this.selectors.length - 1;
+
+		int stepped = 0;
+
+		while (stepped >= 0) {
+			for (int i = stepped; i <= last; i++) {
+				ends[i] = fill(states, view.o, i, i == 0 ? 0 : ends[i - 1]);
+
+				if (i < last) {
+					view.width = ends[i];
+					visitor.enter(i, view);
+				}
+			}
+
+			view.width = last < 0 ? 0 : ends[last];
+			visitor.visit(view);
+
+			stepped = next(states);
+
+			// the prefixes up to the factors from the one that stepped on are complete
+			for (int i = last - 1; i >= Math.max(stepped, 0); i--) {
+				visitor.exit(i);
+			}
+		}
+	}
+
+	/**
+	 * <p>As {@link Combinator#size()}.</p>
+	 *
+	 * @return The number of tuples
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public long size() {
+		checkIndexed();
+
+		if (this.size < 0) {
+			throw new ArithmeticException("More than Long.MAX_VALUE tuples: " + this.count);
+		}
+
+		return this.size;
+	}
+
+	/**
+	 * <p>As {@link Combinator#exactSize()}.</p>
+	 *
+	 * @return The exact number of tuples
+	 * @throws ArithmeticException If a pool holds more than Integer.MAX_VALUE elements
+	 */
+	public BigInteger exactSize() {
+		checkIndexed();
+
+		return this.count;
+	}
+
+	/**
+	 * <p>Only {@link #stream()} and the methods built on it work for pools beyond the int indexes of the selectors.
+	 * Every other method checks for those first, directly or through {@link #newStates()} or {@link #size()}.</p>
+	 *
+	 * @throws ArithmeticException If some pool holds more than Integer.MAX_VALUE elements
+	 */
+	private void checkIndexed() {
+		if (!this.indexed) {
+			throw new ArithmeticException("Pool of more than Integer.MAX_VALUE elements");
+		}
+	}
+
+	/**
+	 * @return A state array for each factor
+	 */
+	int[][] newStates() {
+		checkIndexed();
+
+		final int[][] states = new int[this.selectors.length][];
+
+		for (int i = 0; i < states.length; i++) {
+			states[i] = new int[this.selectors[i].stateLength()];
+		}
+
+		return states;
+	}
+
+	/**
+	 * <p>As {@link Combinator#get(long)}.</p>
+	 *
+	 * @param rank The zero-based position of the tuple
+	 * @return The tuple at that position
+	 * @throws IndexOutOfBoundsException If the rank is negative or not less than the number of tuples
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public Tuple get(final long rank) {
+		final long size = size();
+
+		if (rank < 0 || rank >= size) {
+			throw new IndexOutOfBoundsException("Rank " + rank + " outside of [0, " + size + ')');
+		}
+
+		final int[][] states = newStates();
+		seek(rank, states);
+
+		return assemble(states);
+	}
+
+	/**
+	 * <p>As {@link Combinator#sample(long, long)}.</p>
+	 *
+	 * @param k The number of tuples to draw
+	 * @param seed The seed of the random generator
+	 * @return A lazily drawn stream of at most <tt>k</tt> distinct tuples
+	 */
+	public Stream<Tuple> sample(final long k, final long seed) {
+		if (k < 0 || k > size()) {
+			throw new IllegalArgumentException("Sample size " + k + " outside of [0, " + this.size + ']');
+		}
+
+		return StreamSupport.stream(new RankSampler(this, k, seed, false), false);
+	}
+
+	/**
+	 * <p>As {@link Combinator#sampleWithReplacement(long, long)}.</p>
+	 *
+	 * @param k The number of tuples to draw
+	 * @param seed The seed of the random generator
+	 * @return A lazily drawn stream of <tt>k</tt> tuples
+	 */
+	public Stream<Tuple> sampleWithReplacement(final long k, final long seed) {
+		if (k < 0 || k > 0 && size() == 0) {
+			throw new IllegalArgumentException("Cannot draw " + k + " tuples from " + this.count);
+		}
+
+		return StreamSupport.stream(new RankSampler(this, k, seed, true), false);
+	}
+
+	/**
+	 * <p>Split <tt>rank</tt> into one digit per factor and unrank each factor's digit into its state.</p>
+	 *
+	 * @param rank A rank in [0, size)
+	 * @param states Receives the state of each factor
+	 */
+	void seek(final long rank, final int[][] states) {
+		long rest = rank;
+
+		for (int i = this.selectors.length - 1; i >= 0; i--) {
+			final Selector selector = this.selectors[i];
+
+			selector.unrank(rest % selector.size, states[i]);
+			rest /= selector.size;
+		}
+	}
+
+	/**
+	 * <p>Set <tt>states</tt> to the first tuple that passes the where clauses.</p>
+	 *
+	 * @param states Receives the state of each factor
+	 * @return False if there are no such tuples
+	 */
+	boolean first(final int[][] states) {
+		for (int i = 0; i < this.selectors.length; i++) {
+			this.selectors[i].first(states[i]);
+		}
+
+		return this.count.signum() != 0 && accept(states, 0) >= 0;
+	}
+
+	/**
+	 * <p>Move <tt>states</tt> to the next tuple that passes the where clauses, in place.</p>
+	 *
+	 * @param states The state of each factor
+	 * @return The first factor that changed, or -1 if there is no next tuple
+	 */
+	int next(final int[][] states) {
+		return accept(states, step(states, this.selectors.length - 1));
+	}
+
+	/**
+	 * <p>Step <tt>states</tt> like an odometer: the factors after <tt>factor</tt> are reset to their first selection,
+	 * <tt>factor</tt> steps to its successor, and each factor that wraps around to its first selection carries into the
+	 * factor before it.</p>
+	 *
+	 * @param states The state of each factor
+	 * @param factor The factor to step
+	 * @return The first factor that changed, or -1 if all factors up to <tt>factor</tt> wrapped around
+	 */
+	private int step(final int[][] states, final int factor) {
+		// with no factors, a rejected clause rejects the one empty tuple
+		if (this.selectors.length == 0) {
+			return -1;
+		}
+
+		for (int i = factor + 1; i < this.selectors.length; i++) {
+			this.selectors[i].first(states[i]);
+		}
+
+		for (int i = factor; i >= 0; i--) {
+			if (this.selectors[i].next(states[i])) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * <p>Leave <tt>states</tt> where they are if they pass the where clauses, or step past every tuple that shares the
+	 * selections a failing clause depends on, until they do.</p>
+	 *
+	 * @param states The state of each factor, which changed from factor <tt>stepped</tt> on
+	 * @param stepped The first factor that changed, or -1 if the states wrapped around
+	 * @return The first factor that changed, or -1 if no further tuple passes
+	 */
+	int accept(final int[][] states, final int stepped) {
+		int changed = stepped;
+
+		for (int from = stepped; from >= 0; ) {
+			final int failed = reject(states, from);
+
+			if (failed < 0) {
+				return changed;
+			}
+
+			from = step(states, failed);
+			changed = Math.min(changed, from);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return True if the states pass every where clause
+	 */
+	boolean passes(final int[][] states) {
+		return reject(states, 0) < 0;
+	}
+
+	/**
+	 * @param from The first factor that changed since the clauses were last checked
+	 * @return The factor deciding the first clause that fails, or -1 if all pass
+	 */
+	private int reject(final int[][] states, final int from) {
+		for (int i = 0; i < this.clauses.length; i++) {
+			final Combinator.Clause clause = this.clauses[i];
+
+			if (this.deciders[i] >= from && !clause.predicate.test(select(states, clause.positions))) {
+				return this.deciders[i];
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return The elements at the given tuple positions, flattened
+	 */
+	private Tuple select(final int[][] states, final int[] positions) {
+		final Tuple[] elements = new Tuple[positions.length];
+
+		for (int i = 0; i < positions.length; i++) {
+			final int factor = this.positionFactors[positions[i]];
+
+			elements[i] = this.pools[factor].get(states[factor][this.positionSlots[positions[i]]]);
+		}
+
+		return flatten(elements);
+	}
+
+	/**
+	 * @return The elements, flattened into one tuple
+	 */
+	static Tuple flatten(final Tuple[] elements) {
+		int width = 0;
+
+		for (final Tuple element : elements) {
+			width += element.o.length;
+		}
+
+		final Object[] o = new Object[width];
+		int offset = 0;
+
+		for (final Tuple element : elements) {
+			System.arraycopy(element.o, 0, o, offset, element.o.length);
+			offset += element.o.length;
+		}
+
+		return t(o);
+	}
+
+	/**
+	 * @return True if the elements of a tuple pass every where clause
+	 */
+	boolean passes(final Tuple[] elements) {
+		for (final Combinator.Clause clause : this.clauses) {
+			final Tuple[] selected = new Tuple[clause.positions.length];
+
+			for (int i = 0; i < selected.length; i++) {
+				selected[i] = elements[clause.positions[i]];
+			}
+
+			if (!clause.predicate.test(flatten(selected))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param output Turns the factor states at each rank into an element
+	 * @return A spliterator over all ranks
+	 */
+	<T> RankSpliterator<T> spliterator(final Function<int[][], T> output) {
+		return new RankSpliterator<>(this, 0, this.size, output);
+	}
+
+	/**
+	 * @return Every tuple, in rank order
+	 */
+	Tuple[] expand() {
+		final Tuple[] tuples = new Tuple[Math.toIntExact(size())];
+		final int[][] states = newStates();
+		final int[] i = { 0 };
+
+		forEach(states, () -> tuples[i[0]++] = assemble(states));
+
+		return tuples;
+	}
+
+	/**
+	 * <p>Call <tt>action</tt> with the states of every tuple, in rank order.</p>
+	 *
+	 * @param states The state of each factor, updated in place before each call
+	 * @param action Receives the states
+	 */
+	void forEach(final int[][] states, final Runnable action) {
+		if (first(states)) {
+			do {
+				action.run();
+			} while (next(states) >= 0);
+		}
+	}
+
+	/**
+	 * <p>Copy the pool indexes selected by the given states into <tt>indexes</tt>, factor after factor.</p>
+	 *
+	 * @return indexes
+	 */
+	int[] indexes(final int[][] states, final int[] indexes) {
+		int slot = 0;
+
+		for (int i = 0; i < this.selectors.length; i++) {
+			System.arraycopy(states[i], 0, indexes, slot, this.selectors[i].r);
+			slot += this.selectors[i].r;
+		}
+
+		return indexes;
+	}
+
+	/**
+	 * <p>As {@link Combinator#rankOf(Tuple)}.</p>
+	 *
+	 * @param tuple The tuple to look for
+	 * @return The zero-based position of the tuple, or -1 if it is never produced
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public long rankOf(final Tuple tuple) {
+		size();
+
+		final long[] rank = { -1 };
+		final boolean lexicographic = this.order == Combinator.Order.LEXICOGRAPHIC;
+
+		// candidates are tried in pool order, so in lexicographic order the first complete match has the lowest rank
+		match(tuple.o, 0, (position, end) -> {
+			if (end != tuple.o.length) {
+				return true;
+			}
+
+			if (rank[0] < 0 || position < rank[0]) {
+				rank[0] = position;
+			}
+
+			return !lexicographic;
+		});
+
+		return rank[0];
+	}
+
+	/**
+	 * <p>Report every tuple of this Combinator that occurs in <tt>o</tt> at <tt>offset</tt>, in rank order.</p>
+	 *
+	 * @param o The flattened tuple to look into
+	 * @param offset Where the tuple would start
+	 * @param match Receives the rank and the offset after the tuple
+	 * @return False if <tt>match</tt> stopped the search
+	 */
+	boolean match(final Object[] o, final int offset, final Match match) {
+		return match(o, offset, 0, 0, newStates(), match);
+	}
+
+	private boolean match(
+			final Object[] o, final int offset, final int factor, final int slot, final int[][] states, final Match match
+	) {
+		if (factor == this.selectors.length) {
+			return match.accept(rank(states), offset);
+		}
+
+		final Selector selector = this.selectors[factor];
+
+		if (slot == selector.r) {
+			return match(o, offset, factor + 1, 0, states, match);
+		}
+
+		final int[] state = states[factor];
+
+		return this.pools[factor].match(o, offset, (index, end) -> {
+			if (!selector.allows(state, slot, (int) index)) {
+				return true;
+			}
+
+			state[slot] = (int) index;
+			return match(o, end, factor, slot + 1, states, match);
+		});
+	}
+
+	/**
+	 * @return The rank of the tuple selected by the given states
+	 */
+	long rank(final int[][] states) {
+		long rank = 0;
+
+		for (int i = 0; i < this.selectors.length; i++) {
+			rank = rank * this.selectors[i].size + this.selectors[i].rank(states[i]);
+		}
+
+		return rank;
+	}
+
+	/**
+	 * <p>Write the tuple selected by the given states into <tt>o</tt>, flattened.</p>
+	 *
+	 * @param o An array of at least {@link #maxWidth}
+	 * @return The width of the tuple
+	 */
+	int fill(final int[][] states, final Object[] o) {
+		int width = 0;
+
+		for (int i = 0; i < this.selectors.length; i++) {
+			width = fill(states, o, i, width);
+		}
+
+		return width;
+	}
+
+	/**
+	 * <p>Write the elements selected by one factor into <tt>o</tt>, flattened.</p>
+	 *
+	 * @param factor The factor to write
+	 * @param offset Where to start writing
+	 * @return The offset after the elements
+	 */
+	int fill(final int[][] states, final Object[] o, final int factor, final int offset) {
+		final Pool pool = this.pools[factor];
+		final int[] state = states[factor];
+		final int r = this.selectors[factor].r;
+		int width = offset;
+
+		for (int j = 0; j < r; j++) {
+			final Object[] element = pool.get(state[j]).o;
+
+			// most elements are plain objects, which are cheaper to store than to copy
+			if (element.length == 1) {
+				o[width++] = element[0];
+			} else {
+				System.arraycopy(element, 0, o, width, element.length);
+				width += element.length;
+			}
+		}
+
+		return width;
+	}
+
+	/**
+	 * <p>Every element is written once, straight into an array of {@link #maxWidth}. That is the final width unless
+	 * some pool holds elements of different widths, in which case the array is trimmed with a single copy.</p>
+	 *
+	 * @return The tuple selected by the given states, flattened
+	 */
+	Tuple assemble(final int[][] states) {
+		final Object[] o = new Object[this.maxWidth];
+		final int width = fill(states, o);
+
+		return t(width == o.length ? o : Arrays.copyOf(o, width));
+	}
+
+	@FunctionalInterface interface Match {
+
+		/**
+		 * @param position The rank or pool index of the match
+		 * @param end The offset just past the match
+		 * @return False to stop the search
+		 */
+		boolean accept(long position, int end);
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>A resumable iterator over the tuples of a {@link Combinator}, in {@link Combinator#stream()} order.</p>
+ *
+ * <p>The position of a cursor is the rank of the next tuple, which is all it takes to resume the enumeration: the
+ * factor states are recomputed by unranking it, at the cost of a single {@link Combinator#get(long)}. The position can
+ * be saved as a long with {@link #position()}, or as a {@link #checkpoint()} that also identifies the shape of the
+ * Combinator, so that it is not resumed against a different one by mistake.</p>
+ *
+ * <p>A cursor is not thread-safe.</p>
+ */
+public final class Cursor implements Iterator<Tuple> {
+
+	/** The length of a checkpoint: the fingerprint and the position */
+	private static final int CHECKPOINT_LENGTH = 2 * Long.BYTES;
+
+	private final CompiledCombinator compiled;
+	private final RankSpliterator<Tuple> spliterator;
+
+	/** The tuple read ahead by {@link #hasNext()}, if any */
+	private Tuple next = null;
+
+	Cursor(final CompiledCombinator compiled, final long position) {
+		final long size = compiled.size();
+
+		if (position < 0 || position > size) {
+			throw new IndexOutOfBoundsException("Position " + position + " outside of [0, " + size + ']');
+		}
+
+		this.compiled = compiled;
+		this.spliterator = new RankSpliterator<>(compiled, position, size, compiled::assemble);
+	}
+
+	/**
+	 * @param compiled The Combinator to resume
+	 * @param checkpoint A checkpoint taken from a cursor of the same Combinator
+	 * @return A cursor at the position of the checkpoint
+	 * @throws IllegalArgumentException If the checkpoint is malformed or was taken from a Combinator of a different
+	 * shape
+	 */
+	static Cursor resume(final CompiledCombinator compiled, final byte[] checkpoint) {
+		if (checkpoint.length != CHECKPOINT_LENGTH) {
+			throw new IllegalArgumentException("Checkpoint of " + checkpoint.length + " bytes, expected " +
+					CHECKPOINT_LENGTH);
+		}
+
+		final ByteBuffer buffer = ByteBuffer.wrap(checkpoint);
+
+		if (buffer.getLong() != compiled.fingerprint()) {
+			throw new IllegalArgumentException("Checkpoint taken from a Combinator of a different shape");
+		}
+
+		return new Cursor(compiled, buffer.getLong());
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.next != null || this.spliterator.tryAdvance(tuple -> this.next = tuple);
+	}
+
+	@Override
+	public Tuple next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		final Tuple tuple = this.next;
+		this.next = null;
+
+		return tuple;
+	}
+
+	/**
+	 * <p>The rank of the tuple the next call of {@link #next()} returns. With where clauses, the ranks before it may
+	 * still have to be skipped. Pass it to {@link Combinator#cursor(long)} to resume.</p>
+	 *
+	 * @return The position of this cursor, {@link Combinator#size()} at the end
+	 */
+	public long position() {
+		return this.next != null ? this.spliterator.position() - 1 : this.spliterator.position();
+	}
+
+	/**
+	 * <p>Save the position of this cursor, along with a fingerprint of the Combinator. The fingerprint covers the order,
+	 * the kind, selection count, pool size and element width of each factor and the number of where clauses, but not
+	 * the elements themselves, so that checkpoints stay valid across processes.</p>
+	 *
+	 * @return A checkpoint to pass to {@link Combinator#resume(byte[])}
+	 */
+	public byte[] checkpoint() {
+		return ByteBuffer.allocate(CHECKPOINT_LENGTH).putLong(this.compiled.fingerprint()).putLong(position()).array();
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * <p>A {@link Combinator} over int pools, producing each tuple as an int[] of the selected values.</p>
+ *
+ * <p>Pool values are boxed once, when a factor is added, so that pools with equal values can be told apart the same
+ * way a Combinator does. Generation then only moves pool indexes, and each tuple is written by looking its indexes
+ * up in the int pools: no Integer, {@link Tuple} or Object[] is created per tuple.</p>
+ *
+ * <p>Note: choose/permute chains do not create new IntCombinators, the base instance is mutated and returned
+ * instead.</p>
+ *
+ * <h4>Simple example</h4>
+ *
+ * <pre>
+ * new IntCombinator().chooseR(2, 1, 2, 3).permuteN(2, 7, 8).stream()
+ * </pre>
+ *
+ * <pre>
+ * [1, 2, 7, 8], [1, 2, 8, 7], [1, 3, 7, 8], [1, 3, 8, 7], [2, 3, 7, 8], [2, 3, 8, 7]
+ * </pre>
+ */
+public final class IntCombinator {
+
+	private final Combinator combinator = new Combinator();
+
+	/** Per slot: the pool of the factor it belongs to */
+	private final ArrayList<int[]> slots = new ArrayList<>();
+
+	/**
+	 * <p>Choose one value from the input.</p>
+	 *
+	 * <p>Multiplies the number of total results by N, where N is the count of the input.</p>
+	 *
+	 * @param o The pool to choose from
+	 * @return The modifed IntCombinator
+	 */
+	public IntCombinator chooseOne(final int... o) {
+		return chooseR(1, o);
+	}
+
+	/**
+	 * <p>As {@link Combinator#chooseR(int, Object...)}.</p>
+	 *
+	 * @param r The number of values chosen
+	 * @param o The pool to choose from
+	 * @return The modifed IntCombinator
+	 */
+	public IntCombinator chooseR(final int r, final int... o) {
+		this.combinator.chooseR(r, box(r, o));
+		return this;
+	}
+
+	/**
+	 * <p>As {@link Combinator#permuteN(int, Object...)}.</p>
+	 *
+	 * @param r The number of values selected
+	 * @param o The pool to select from
+	 * @return The modifed IntCombinator
+	 */
+	public IntCombinator permuteN(final int r, final int... o) {
+		this.combinator.permuteN(r, box(r, o));
+		return this;
+	}
+
+	/**
+	 * <p>As {@link Combinator#chooseWithRepetition(int, Object...)}.</p>
+	 *
+	 * @param r The number of values chosen
+	 * @param o The pool to choose from
+	 * @return The modifed IntCombinator
+	 */
+	public IntCombinator chooseWithRepetition(final int r, final int... o) {
+		this.combinator.chooseWithRepetition(r, box(r, o));
+		return this;
+	}
+
+	/**
+	 * <p>As {@link Combinator#permuteWithRepetition(int, Object...)}.</p>
+	 *
+	 * @param r The number of values selected
+	 * @param o The pool to select from
+	 * @return The modifed IntCombinator
+	 */
+	public IntCombinator permuteWithRepetition(final int r, final int... o) {
+		this.combinator.permuteWithRepetition(r, box(r, o));
+		return this;
+	}
+
+	/**
+	 * <p>As {@link Combinator#permuteDistinct(int, Object...)}.</p>
+	 *
+	 * @param r The number of values selected
+	 * @param o The pool to select from
+	 * @return The modifed IntCombinator
+	 */
+	public IntCombinator permuteDistinct(final int r, final int... o) {
+		this.combinator.permuteDistinct(r, box(r, o));
+		return this;
+	}
+
+	/**
+	 * <p>As {@link Combinator#order(Combinator.Order)}.</p>
+	 *
+	 * @param order The order of the tuples, {@link Combinator.Order#LEXICOGRAPHIC} by default
+	 * @return The modifed IntCombinator
+	 */
+	public IntCombinator order(final Combinator.Order order) {
+		this.combinator.order(order);
+		return this;
+	}
+
+	/**
+	 * <p>The tuples in the order of {@link Combinator#stream()}, each a fresh array of the selected values. The index
+	 * arrays the tuples are generated as are rewritten in place, so nothing else is allocated per tuple.</p>
+	 *
+	 * @return A lazily constructed stream of fresh value arrays
+	 */
+	public Stream<int[]> stream() {
+		final int[][] slots = slots();
+
+		return this.combinator.indexStream().map(indexes -> values(slots, indexes, indexes));
+	}
+
+	/**
+	 * <p>The values of every tuple, one after the other, each tuple taking {@link #width()} values.</p>
+	 *
+	 * @return A lazily constructed stream of the values of all tuples
+	 */
+	public IntStream flatStream() {
+		return stream().flatMapToInt(IntStream::of);
+	}
+
+	/**
+	 * <p>Pass every tuple to <tt>action</tt>, in {@link #stream()} order, without allocating per tuple. The same
+	 * array is refilled for each tuple, so it must not be kept beyond the call.</p>
+	 *
+	 * @param action Receives the reused value array of each tuple
+	 */
+	public void forEach(final Consumer<int[]> action) {
+		final int[][] slots = slots();
+		final int[] values = new int[slots.length];
+
+		this.combinator.forEachIndex(indexes -> action.accept(values(slots, indexes, values)));
+	}
+
+	/**
+	 * <p>As {@link Combinator#get(long)}.</p>
+	 *
+	 * @param rank The zero-based position of the tuple
+	 * @return The values of the tuple at that position
+	 * @throws IndexOutOfBoundsException If the rank is negative or not less than the number of tuples
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public int[] get(final long rank) {
+		final Tuple tuple = this.combinator.get(rank);
+		final int[] values = new int[tuple.o.length];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (Integer) tuple.o[i];
+		}
+
+		return values;
+	}
+
+	/**
+	 * <p>As {@link Combinator#rankOf(Tuple)}.</p>
+	 *
+	 * @param values The values of the tuple to look for
+	 * @return The zero-based position of the tuple, or -1 if it is never produced
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public long rankOf(final int... values) {
+		return this.combinator.rankOf(new Tuple(IntStream.of(values).boxed().toArray()));
+	}
+
+	/**
+	 * @return The number of values in each tuple
+	 */
+	public int width() {
+		return this.slots.size();
+	}
+
+	/**
+	 * <p>As {@link Combinator#size()}.</p>
+	 *
+	 * @return The number of tuples
+	 * @throws ArithmeticException If the number of tuples does not fit in a long
+	 */
+	public long size() {
+		return this.combinator.size();
+	}
+
+	/**
+	 * <p>As {@link Combinator#exactSize()}.</p>
+	 *
+	 * @return The number of tuples
+	 */
+	public BigInteger exactSize() {
+		return this.combinator.exactSize();
+	}
+
+	private List<Object> box(final int r, final int[] o) {
+		final int[] pool = o.clone();
+		final List<Object> boxed = new ArrayList<>(pool.length);
+
+		for (int i = 0; i < r; i++) {
+			this.slots.add(pool);
+		}
+
+		for (final int value : pool) {
+			boxed.add(value);
+		}
+
+		return boxed;
+	}
+
+	private int[][] slots() {
+		return this.slots.toArray(new int[this.slots.size()][]);
+	}
+
+	/**
+	 * <p>Write the value at each pool index of <tt>indexes</tt> into <tt>values</tt>, which may be the same array.</p>
+	 */
+	private static int[] values(final int[][] slots, final int[] indexes, final int[] values) {
+		for (int i = 0; i < slots.length; i++) {
+			values[i] = slots[i][indexes[i]];
+		}
+
+		return values;
+	}
+}
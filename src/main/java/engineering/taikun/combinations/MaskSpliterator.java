@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ * <p>A spliterator over the ranks [lo, hi) of the r-combinations of at most 64 pool indexes, each reported as a mask
+ * with bit i set if pool index i is chosen.</p>
+ *
+ * <p>Masks come in increasing unsigned order, which is colexicographic order of the combinations. Traversal steps with
+ * Gosper's hack, a few word operations per mask. Splitting halves the range and unranks the first mask of the upper
+ * half through the colexicographic rank &Sigma; C(c<sub>i</sub>, i + 1) of c<sub>0</sub> &lt; ... &lt;
+ * c<sub>r-1</sub>.</p>
+ *
+ * <p>The static methods step masks of any width, kept in long[] words of 64 bits, least significant word first.</p>
+ */
+final class MaskSpliterator implements Spliterator.OfLong {
+
+	private final int r;
+
+	/** The next rank to report */
+	private long lo;
+
+	/** The end of the range */
+	private final long hi;
+
+	/** The mask of rank lo - 1, if positioned */
+	private long mask;
+
+	/** Whether mask holds the mask before lo */
+	private boolean positioned = false;
+
+	MaskSpliterator(final int r, final long lo, final long hi) {
+		this.r = r;
+		this.lo = lo;
+		this.hi = hi;
+	}
+
+	@Override
+	public boolean tryAdvance(final LongConsumer action) {
+		if (this.lo >= this.hi) {
+			return false;
+		}
+
+		this.mask = this.positioned ? next(this.mask) : unrank(this.lo, this.r);
+		this.positioned = true;
+		this.lo++;
+
+		action.accept(this.mask);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(final LongConsumer action) {
+		if (this.lo >= this.hi) {
+			return;
+		}
+
+		long mask = this.positioned ? next(this.mask) : unrank(this.lo, this.r);
+
+		for (long rank = this.lo; rank < this.hi - 1; rank++) {
+			action.accept(mask);
+			mask = next(mask);
+		}
+
+		action.accept(mask);
+
+		this.mask = mask;
+		this.positioned = true;
+		this.lo = this.hi;
+	}
+
+	@Override
+	public Spliterator.OfLong trySplit() {
+		if (this.hi - this.lo < 2) {
+			return null;
+		}
+
+		final long mid = this.lo + (this.hi - this.lo >>> 1);
+		final MaskSpliterator prefix = new MaskSpliterator(this.r, this.lo, mid);
+
+		if (this.positioned) {
+			prefix.mask = this.mask;
+			prefix.positioned = true;
+		}
+
+		this.lo = mid;
+		this.positioned = false;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return this.hi - this.lo;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | DISTINCT | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+	}
+
+	/**
+	 * @return The mask of the combination after <tt>mask</tt> in colexicographic order
+	 */
+	static long next(final long mask) {
+		// the lowest run of ones moves its top bit up by one, the rest of the run drops to the bottom
+		final long lowest = mask & -mask;
+		final long carried = mask + lowest;
+
+		return carried | ((carried ^ mask) >>> 2) / lowest;
+	}
+
+	/**
+	 * @return The mask of the combination with colexicographic rank <tt>rank</tt>
+	 */
+	static long unrank(final long rank, final int r) {
+		long rest = rank;
+		long mask = 0;
+		int c = Long.SIZE;
+
+		for (int i = r; i > 0; i--) {
+			// largest c with C(c, i) <= rest, C(i - 1, i) = 0 so there always is one
+			do {
+				c--;
+			} while (Selector.binomial(c, i) > rest);
+
+			mask |= 1L << c;
+			rest -= Selector.binomial(c, i);
+		}
+
+		return mask;
+	}
+
+	/**
+	 * @return The mask of the first r-combination of n, in words of 64 bits
+	 */
+	static long[] first(final int n, final int r) {
+		final long[] mask = new long[Math.max((n + Long.SIZE - 1) / Long.SIZE, 1)];
+
+		for (int i = 0; i < r; i++) {
+			mask[i >>> 6] |= 1L << i;
+		}
+
+		return mask;
+	}
+
+	/**
+	 * <p>Move <tt>mask</tt> to the combination after it in colexicographic order, in place. The same step as
+	 * {@link #next(long)}, carried across words.</p>
+	 *
+	 * @param mask The words of a mask that has a next combination
+	 * @return <tt>mask</tt>
+	 */
+	static long[] next(final long[] mask) {
+		int p = 0;
+
+		while (mask[p >>> 6] == 0) {
+			p += Long.SIZE;
+		}
+
+		p += Long.numberOfTrailingZeros(mask[p >>> 6]);
+
+		// the run of ones from p ends below q
+		int q = p;
+
+		while ((mask[q >>> 6] & 1L << q) != 0) {
+			mask[q >>> 6] &= ~(1L << q);
+			q++;
+		}
+
+		mask[q >>> 6] |= 1L << q;
+
+		for (int i = 0; i < q - p - 1; i++) {
+			mask[i >>> 6] |= 1L << i;
+		}
+
+		return mask;
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import static engineering.taikun.combinations.Tuple.t;
+
+/**
+ * <p>A random access view of a factor's pool, as flattened by the Combinator.</p>
+ *
+ * <p>Plain objects and {@link Tuple}s take one index each. A nested supplier takes one index per tuple it produces.
+ * Nested Combinators are expanded once, when the pool is built, as long as the expansion budget lasts; beyond it they
+ * stay lazy and are unranked on access instead. Any other {@link TupleSupplier}, including a Combinator with where
+ * clauses, is always expanded.</p>
+ *
+ * <p>The expanded elements are kept in one array, so a pool without lazy segments is read with a single array access.
+ * Otherwise only the lazy segments are searched, and the elements between them are read from the array.</p>
+ *
+ * <p>Pool indexes are longs, so a nested Combinator of any size fits. Selectors address at most Integer.MAX_VALUE
+ * elements though, see {@link #indexed()}; larger pools can only be iterated.</p>
+ */
+final class Pool {
+
+	/** The expanded elements in pool order, leaving out the lazy segments */
+	private final Tuple[] elements;
+
+	/** The nested Combinators that were not expanded, in pool order */
+	private final CompiledCombinator[] lazy;
+
+	/** Per lazy segment: the pool index of its first element, or -1 after a lazy segment whose size is not known */
+	private final long[] lazyStarts;
+
+	/** Per lazy segment: the number of expanded elements before it */
+	private final int[] lazyAt;
+
+	/** The number of elements, or -1 if that does not fit in a long or is not known */
+	final long size;
+
+	/** The largest width of any element */
+	final int maxWidth;
+
+	/**
+	 * @param objects The pool as passed to the Combinator
+	 * @param budget The number of nested Combinator tuples that may still be expanded, decremented as they are
+	 */
+	Pool(final List<Object> objects, final long[] budget) {
+		final ArrayList<Tuple> elements = new ArrayList<>(objects.size());
+		final CompiledCombinator[] lazy = new CompiledCombinator[objects.size()];
+		final long[] lazy_starts = new long[objects.size()];
+		final int[] lazy_at = new int[objects.size()];
+
+		int lazy_count = 0;
+		long size = 0;
+		int max_width = 0;
+
+		for (final Object o : objects) {
+			final long length;
+
+			if (o instanceof Combinator && ((Combinator) o).clauses.isEmpty()) {
+				final Combinator nested = (Combinator) o;
+
+				// what the nested pools expand counts against this budget too
+				final long[] nested_budget = { Math.min(budget[0], nested.expansion_limit) };
+				final CompiledCombinator compiled = new CompiledCombinator(nested, nested_budget);
+				budget[0] -= compiled.expanded;
+				length = compiled.size;
+				max_width = Math.max(max_width, compiled.maxWidth);
+
+				// empty ones always fit the budget, so lazy segments are never empty
+				if (length >= 0 && length <= budget[0] && length <= Integer.MAX_VALUE) {
+					budget[0] -= length;
+					elements.addAll(Arrays.asList(compiled.expand()));
+				} else {
+					lazy[lazy_count] = compiled;
+					lazy_starts[lazy_count] = size;
+					lazy_at[lazy_count] = elements.size();
+					lazy_count++;
+				}
+			} else if (o instanceof TupleSupplier) {
+				final Tuple[] tuples = ((TupleSupplier) o).get().toArray(Tuple[]::new);
+				elements.addAll(Arrays.asList(tuples));
+				length = tuples.length;
+
+				for (final Tuple tuple : tuples) {
+					max_width = Math.max(max_width, tuple.o.length);
+				}
+			} else if (o instanceof Tuple) {
+				elements.add((Tuple) o);
+				length = 1;
+				max_width = Math.max(max_width, ((Tuple) o).o.length);
+			} else {
+				elements.add(t(o));
+				length = 1;
+				max_width = Math.max(max_width, 1);
+			}
+
+			size = size < 0 || length < 0 || length > Long.MAX_VALUE - size ? -1 : size + length;
+		}
+
+		this.elements = elements.toArray(new Tuple[elements.size()]);
+		this.lazy = Arrays.copyOf(lazy, lazy_count);
+		this.lazyStarts = Arrays.copyOf(lazy_starts, lazy_count);
+		this.lazyAt = Arrays.copyOf(lazy_at, lazy_count);
+		this.size = size;
+		this.maxWidth = max_width;
+	}
+
+	/**
+	 * @return Whether every element has an int index, as selectors need
+	 */
+	boolean indexed() {
+		return this.size >= 0 && this.size <= Integer.MAX_VALUE;
+	}
+
+	Tuple get(final int index) {
+		if (this.lazy.length == 0) {
+			return this.elements[index];
+		}
+
+		// the last lazy segment starting at or before index
+		int segment = Arrays.binarySearch(this.lazyStarts, index);
+
+		if (segment < 0) {
+			segment = -segment - 2;
+		}
+
+		if (segment < 0) {
+			return this.elements[index];
+		}
+
+		final CompiledCombinator compiled = this.lazy[segment];
+		final long offset = index - this.lazyStarts[segment];
+
+		if (offset < compiled.size) {
+			return compiled.get(offset);
+		}
+
+		// one of the expanded elements after the lazy segment
+		return this.elements[(int) (this.lazyAt[segment] + offset - compiled.size)];
+	}
+
+	/**
+	 * <p>The elements from pool index <tt>from</tt> on, in pool order. Nested Combinators are streamed rather than
+	 * unranked, so this works for pools of any size.</p>
+	 *
+	 * @param from The pool index of the first element
+	 * @return A lazy iterator over the elements
+	 */
+	Iterator<Tuple> iterator(final long from) {
+		return new Iterator<Tuple>() {
+
+			/** The next part to enter: the expanded elements before lazy segment i at 2i, the segment at 2i + 1 */
+			private int next = 0;
+
+			/** The number of elements still to skip */
+			private long skip = from;
+
+			private Iterator<Tuple> current = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext() {
+				while (!this.current.hasNext() && this.next <= 2 * Pool.this.lazy.length) {
+					if (this.next % 2 == 0) {
+						enterElements(this.next / 2);
+					} else {
+						enterLazy(Pool.this.lazy[this.next / 2]);
+					}
+
+					this.next++;
+				}
+
+				return this.current.hasNext();
+			}
+
+			private void enterElements(final int segment) {
+				final int lo = segment == 0 ? 0 : Pool.this.lazyAt[segment - 1];
+				final int hi = segment == Pool.this.lazy.length ? Pool.this.elements.length : Pool.this.lazyAt[segment];
+
+				if (this.skip >= hi - lo) {
+					this.skip -= hi - lo;
+				} else {
+					this.current = Arrays.asList(Pool.this.elements).subList((int) (lo + this.skip), hi).iterator();
+					this.skip = 0;
+				}
+			}
+
+			private void enterLazy(final CompiledCombinator compiled) {
+				if (compiled.size >= 0 && this.skip >= compiled.size) {
+					this.skip -= compiled.size;
+				} else if (compiled.size >= 0) {
+					this.current = compiled.stream(this.skip, compiled.size).iterator();
+					this.skip = 0;
+				} else {
+					// the size is not known, so skipping is counted out
+					this.current = compiled.stream().iterator();
+
+					for (; this.skip > 0 && this.current.hasNext(); this.skip--) {
+						this.current.next();
+					}
+				}
+			}
+
+			@Override
+			public Tuple next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				return this.current.next();
+			}
+		};
+	}
+
+	/**
+	 * <p>Report every element that occurs in <tt>o</tt> at <tt>offset</tt>, in pool order.</p>
+	 *
+	 * @param o The flattened tuple to look into
+	 * @param offset Where the element would start
+	 * @param match Receives the pool index and the offset after the element
+	 * @return False if <tt>match</tt> stopped the search
+	 */
+	boolean match(final Object[] o, final int offset, final CompiledCombinator.Match match) {
+		long index = 0;
+		int next = 0;
+
+		for (int i = 0; i <= this.lazy.length; i++) {
+			final int end = i == this.lazy.length ? this.elements.length : this.lazyAt[i];
+
+			for (; next < end; next++, index++) {
+				final Tuple element = this.elements[next];
+
+				if (occurs(element, o, offset) && !match.accept(index, offset + element.o.length)) {
+					return false;
+				}
+			}
+
+			if (i < this.lazy.length) {
+				final long start = index;
+
+				if (!this.lazy[i].match(o, offset, (rank, after) -> match.accept(start + rank, after))) {
+					return false;
+				}
+
+				index += this.lazy[i].size;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean occurs(final Tuple element, final Object[] o, final int offset) {
+		if (element.o.length > o.length - offset) {
+			return false;
+		}
+
+		for (int i = 0; i < element.o.length; i++) {
+			if (!Objects.equals(element.o[i], o[offset + i])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
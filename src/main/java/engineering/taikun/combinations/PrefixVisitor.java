@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+/**
+ * <p>Walks the tuples of a {@link Combinator} as a tree with one level per factor, see
+ * {@link Combinator#walk(PrefixVisitor)}.</p>
+ *
+ * <p>Every call is passed the same reused {@link TupleView}, which is only valid during the call.</p>
+ */
+@FunctionalInterface public interface PrefixVisitor {
+
+	/**
+	 * <p>The selections of factors 0 to <tt>factor</tt> are fixed. Every tuple visited until the matching
+	 * {@link #exit(int)} starts with <tt>prefix</tt>. Does nothing by default.</p>
+	 *
+	 * @param factor The last factor of the prefix, never the last factor of the Combinator
+	 * @param prefix The elements selected by those factors
+	 */
+	default void enter(final int factor, final TupleView prefix) {
+	}
+
+	/**
+	 * @param tuple A complete tuple
+	 */
+	void visit(TupleView tuple);
+
+	/**
+	 * <p>All tuples starting with the prefix of the matching {@link #enter(int, TupleView)} have been visited. Does
+	 * nothing by default.</p>
+	 *
+	 * @param factor The last factor of the prefix
+	 */
+	default void exit(final int factor) {
+	}
+}
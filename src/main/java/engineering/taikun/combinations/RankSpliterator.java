@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * <p>A spliterator over the ranks [lo, hi) of a {@link CompiledCombinator}, reporting whatever <tt>output</tt> makes of
+ * the factor states at each rank.</p>
+ *
+ * <p>Splitting halves the range, so parallel streams divide the work evenly. Traversal unranks the first rank once and
+ * steps through the rest in place with {@link CompiledCombinator#next(int[][])}.</p>
+ *
+ * <p>With where clauses, traversal skips the ranks they reject and the range only bounds the size.</p>
+ *
+ * <p>Combinators with more than Long.MAX_VALUE tuples cannot be addressed by rank. For those hi is -1, and the
+ * spliterator walks from the first tuple to the last without splitting or knowing its size.</p>
+ */
+final class RankSpliterator<T> implements Spliterator<T> {
+
+	private final CompiledCombinator compiled;
+	private final Function<int[][], T> output;
+	private final int[][] states;
+
+	/** The next rank to report */
+	private long lo;
+
+	/** The end of the range, or -1 for the end of an unaddressable Combinator */
+	private final long hi;
+
+	/** Whether states hold the tuple before lo */
+	private boolean positioned = false;
+
+	/** Whether an unaddressable Combinator ran out of tuples */
+	private boolean exhausted = false;
+
+	/** Whether where clauses may skip ranks, leaving the size unknown */
+	private final boolean filtered;
+
+	RankSpliterator(
+			final CompiledCombinator compiled, final long lo, final long hi, final Function<int[][], T> output
+	) {
+		this.compiled = compiled;
+		this.output = output;
+		this.states = compiled.newStates();
+		this.lo = lo;
+		this.hi = hi;
+		this.filtered = compiled.clauses.length > 0;
+	}
+
+	@Override
+	public boolean tryAdvance(final Consumer<? super T> action) {
+		if (this.hi < 0) {
+			if (this.exhausted) {
+				return false;
+			}
+
+			this.exhausted = this.positioned ? this.compiled.next(this.states) < 0 : !this.compiled.first(this.states);
+			this.positioned = true;
+
+			if (this.exhausted) {
+				return false;
+			}
+		} else {
+			if (this.lo >= this.hi) {
+				return false;
+			}
+
+			final int stepped;
+
+			if (this.positioned) {
+				stepped = this.compiled.next(this.states);
+			} else {
+				this.compiled.seek(this.lo, this.states);
+				this.positioned = true;
+				stepped = this.compiled.accept(this.states, 0);
+			}
+
+			// where clauses may have skipped ahead
+			if (this.filtered) {
+				this.lo = stepped < 0 ? this.hi : this.compiled.rank(this.states);
+
+				if (this.lo >= this.hi) {
+					this.lo = this.hi;
+					return false;
+				}
+			}
+		}
+
+		this.lo++;
+		action.accept(this.output.apply(this.states));
+		return true;
+	}
+
+	/**
+	 * @return The rank after the last reported tuple, where a new spliterator would resume
+	 */
+	long position() {
+		return this.lo;
+	}
+
+	@Override
+	public void forEachRemaining(final Consumer<? super T> action) {
+		while (tryAdvance(action)) {
+			// keep going
+		}
+	}
+
+	@Override
+	public Spliterator<T> trySplit() {
+		if (this.hi < 0) {
+			return null;
+		}
+
+		final long mid = this.lo + ((this.hi - this.lo) >>> 1);
+
+		if (mid == this.lo) {
+			return null;
+		}
+
+		final Spliterator<T> prefix = new RankSpliterator<>(this.compiled, this.lo, mid, this.output);
+
+		this.lo = mid;
+		this.positioned = false;
+
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return this.hi < 0 ? Long.MAX_VALUE : this.hi - this.lo;
+	}
+
+	@Override
+	public int characteristics() {
+		return this.hi < 0 || this.filtered
+				? ORDERED | IMMUTABLE | NONNULL
+				: ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+	}
+}
@@ -22,7 +22,8 @@ import java.util.stream.Stream;
 public class RelationFilter implements TupleSupplier {
 
 	final ArrayList<Tuple> data;
-	final Tuple[] relations;
+	/** Per relation: the positions it relates */
+	final int[][] relations;
 
 	/**
 	 * <p>This class takes a {@link TupleSupplier} and produces a subset of the supplier's output such that every unique
@@ -34,7 +35,8 @@ public class RelationFilter implements TupleSupplier {
 	 * relation, not just pairs).</p>
 	 *
 	 * <p>Relations are tuples of integers that specify the relations. You can also supply a {@code Stream<Tuple>} (like
-	 * those produced by {@link RelationFilter#ALL_PAIRS(int)}</p>
+	 * those produced by {@link RelationFilter#ALL_PAIRS(int)}), or int[]s and {@code Stream<int[]>}s in place of the
+	 * tuples (like those produced by {@link RelationFilter#ALL_K_INT_SETS(int, int)})</p>
 	 *
 	 * <h3>USAGE WARNINGS</h3>
 	 *
@@ -117,7 +119,7 @@ public class RelationFilter implements TupleSupplier {
 	 * </pre>
 	 *
 	 * @param supplier Source of the tuples to be filtered
-	 * @param relations Tuples of Integers or a Stream of such where each Tuple is one relation to be checked
+	 * @param relations Tuples of Integers, int[]s or Streams of either where each element is one relation to be checked
 	 */
 	public RelationFilter(final TupleSupplier supplier, final Object... relations) {
 		this.data = supplier.get().collect(Collectors.toCollection(ArrayList::new));
@@ -125,11 +127,26 @@ public class RelationFilter implements TupleSupplier {
 
 		this.relations = Arrays.stream(relations).flatMap(relation -> {
 			if (relation instanceof Stream) {
-				return (Stream<Tuple>) relation;
+				return (Stream<?>) relation;
 			} else {
 				return Stream.of(relation);
 			}
-		}).toArray(Tuple[]::new);
+		}).map(RelationFilter::positions).toArray(int[][]::new);
+	}
+
+	private static int[] positions(final Object relation) {
+		if (relation instanceof int[]) {
+			return (int[]) relation;
+		}
+
+		final Tuple tuple = (Tuple) relation;
+		final int[] positions = new int[tuple.o.length];
+
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = (Integer) tuple.o[i];
+		}
+
+		return positions;
 	}
 
 	@Override
@@ -156,12 +173,12 @@ public class RelationFilter implements TupleSupplier {
 
 			for (int i = 0; i < this.sets.length; i++) {
 
-				final Tuple relation = RelationFilter.this.relations[i];
+				final int[] relation = RelationFilter.this.relations[i];
 
-				final Object[] subset = new Object[relation.o.length];
+				final Object[] subset = new Object[relation.length];
 
-				for (int j = 0; j < relation.o.length; j++) {
-					subset[j] = tuple.o[(Integer) relation.o[j]];
+				for (int j = 0; j < relation.length; j++) {
+					subset[j] = tuple.o[relation[j]];
 				}
 
 				final Tuple subtuple = new Tuple(subset);
@@ -216,4 +233,15 @@ public class RelationFilter implements TupleSupplier {
 	public static Stream<Tuple> ALL_K_SETS(final int n, final int k) {
 		return new Combinator().chooseR(k, IntStream.range(0, n).mapToObj(i -> i).toArray()).stream();
 	}
+
+	/**
+	 * <p>As {@link #ALL_K_SETS(int, int)}, but each relation is an int[], so no Integers or Tuples are created.</p>
+	 *
+	 * @param n Dimensionality of search space
+	 * @param k Dimensionality of subset space
+	 * @return A stream of all k-wise relations
+	 */
+	public static Stream<int[]> ALL_K_INT_SETS(final int n, final int k) {
+		return new IntCombinator().chooseR(k, IntStream.range(0, n).toArray()).stream();
+	}
 }
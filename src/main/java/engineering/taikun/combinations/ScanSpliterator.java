@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * <p>A spliterator over the tuples of a {@link CompiledCombinator} with a pool too large for the int indexes of the
+ * selectors, see {@link Pool#indexed()}.</p>
+ *
+ * <p>Each slot iterates the pool of its factor from the first pool index it may take, counting pool indexes in longs.
+ * Like an odometer, the last slot advances, and a slot that runs out of elements restarts after advancing the slot
+ * before it. Pools are iterated with {@link Pool#iterator(long)}, which streams nested Combinators rather than
+ * unranking them, so they may be of any size.</p>
+ *
+ * <p>This gives lexicographic order. Traversal is sequential and the size is unknown.</p>
+ */
+final class ScanSpliterator implements Spliterator<Tuple> {
+
+	private final CompiledCombinator compiled;
+
+	/** Per slot: the remaining elements of its pool, or null if the slot restarts when advanced */
+	private final Iterator<?>[] candidates;
+
+	/** Per slot: the pool index of its element */
+	private final long[] indexes;
+
+	/** Per slot: its element */
+	private final Tuple[] elements;
+
+	/** The slot to advance next, or -1 once every slot ran out */
+	private int position = 0;
+
+	ScanSpliterator(final CompiledCombinator compiled) {
+		this.compiled = compiled;
+		this.candidates = new Iterator<?>[compiled.slots];
+		this.indexes = new long[compiled.slots];
+		this.elements = new Tuple[compiled.slots];
+	}
+
+	@Override
+	public boolean tryAdvance(final Consumer<? super Tuple> action) {
+		while (this.position >= 0) {
+			if (this.position == this.elements.length) {
+				this.position--;
+
+				if (this.compiled.passes(this.elements)) {
+					action.accept(CompiledCombinator.flatten(this.elements));
+					return true;
+				}
+			} else if (advance(this.position)) {
+				this.position++;
+
+				if (this.position < this.candidates.length) {
+					this.candidates[this.position] = null;
+				}
+			} else {
+				this.position--;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * <p>Move a slot to the next element it may take, given the slots before it.</p>
+	 *
+	 * @return False if the slot ran out of elements
+	 */
+	private boolean advance(final int position) {
+		final int factor = this.compiled.positionFactors[position];
+		final int slot = this.compiled.positionSlots[position];
+		final Combinator.Kind kind = this.compiled.kinds[factor];
+
+		if (this.candidates[position] == null) {
+			final long previous = slot == 0 ? -1 : this.indexes[position - 1];
+
+			// choose factors keep their pool indexes ascending, with repetition non-descending
+			final long from = kind == Combinator.Kind.CHOOSE ? previous + 1
+					: kind == Combinator.Kind.CHOOSE_WITH_REPETITION ? Math.max(previous, 0) : 0;
+
+			this.candidates[position] = this.compiled.pools[factor].iterator(from);
+			this.indexes[position] = from - 1;
+		}
+
+		final Iterator<?> candidates = this.candidates[position];
+
+		while (candidates.hasNext()) {
+			final Tuple element = (Tuple) candidates.next();
+			final long index = ++this.indexes[position];
+
+			// permute factors use each pool index once
+			if (kind != Combinator.Kind.PERMUTE || !used(position - slot, position, index)) {
+				this.elements[position] = element;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return True if one of the slots [from, to) holds pool index <tt>index</tt>
+	 */
+	private boolean used(final int from, final int to, final long index) {
+		for (int i = from; i < to; i++) {
+			if (this.indexes[i] == index) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public Spliterator<Tuple> trySplit() {
+		return null;
+	}
+
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | IMMUTABLE | NONNULL;
+	}
+}
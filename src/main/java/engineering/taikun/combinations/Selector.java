@@ -0,0 +1,1182 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * <p>The rank arithmetic of a single factor. Maps a rank within the factor to the pool indexes of one selection.</p>
+ *
+ * <p>A selection is kept in an int[] state, the first <tt>r</tt> entries of which are the chosen pool indexes in
+ * output order. Subclasses may reserve additional scratch entries after those (see {@link #stateLength()}).</p>
+ */
+abstract class Selector {
+
+	/** The largest number of entries a selector precomputes its rank arithmetic into */
+	static final int TABLE_LIMIT = 1 << 14;
+
+	/** The pool size */
+	final int n;
+
+	/** The number of pool indexes in each selection */
+	final int r;
+
+	/** The exact number of selections */
+	final BigInteger count;
+
+	/** The number of selections, or -1 if that does not fit in a long */
+	final long size;
+
+	Selector(final int n, final int r, final BigInteger count) {
+		this.n = n;
+		this.r = r;
+		this.count = count;
+		this.size = count.bitLength() < Long.SIZE ? count.longValue() : -1;
+	}
+
+	static Selector of(final Combinator.Kind kind, final Combinator.Order order, final int r, final Pool pool) {
+		// only compiled for indexed pools, see Pool#indexed()
+		final int n = (int) pool.size;
+		final boolean gray = order == Combinator.Order.GRAY;
+
+		switch (kind) {
+			case CHOOSE:
+				return gray ? new RevolvingDoor(n, r) : new Choose(n, r);
+			case PERMUTE:
+				return gray ? new JohnsonTrotter(n, r) : new Permute(n, r);
+			case CHOOSE_WITH_REPETITION:
+				return new Multichoose(n, r);
+			case PERMUTE_WITH_REPETITION:
+				return new Power(n, r);
+			case PERMUTE_DISTINCT:
+				return Arrangement.of(pool, n, r);
+			default:
+				throw new AssertionError(kind);
+		}
+	}
+
+	/**
+	 * @return The length of the state array this selector works on
+	 */
+	int stateLength() {
+		return this.r;
+	}
+
+	/**
+	 * <p>Write the selection at <tt>rank</tt> into <tt>state</tt>.</p>
+	 *
+	 * @param rank A rank in [0, size)
+	 * @param state The state to overwrite
+	 */
+	abstract void unrank(long rank, int[] state);
+
+	/**
+	 * <p>Write the selection of rank 0 into <tt>state</tt>.</p>
+	 *
+	 * @param state The state to overwrite
+	 */
+	abstract void first(int[] state);
+
+	/**
+	 * <p>Move <tt>state</tt> to the selection of the next rank, in place.</p>
+	 *
+	 * @param state A state holding a selection
+	 * @return False if the selection had the last rank, in which case the state is reset to {@link #first(int[])}
+	 */
+	abstract boolean next(int[] state);
+
+	/**
+	 * <p>Rank the selection in the first <tt>r</tt> entries of <tt>state</tt>. The scratch entries need not be set, and
+	 * may be overwritten.</p>
+	 *
+	 * @param state A state holding a selection
+	 * @return The rank of the selection
+	 */
+	abstract long rank(int[] state);
+
+	/**
+	 * <p>Whether <tt>index</tt> may be put into <tt>slot</tt>, given the pool indexes in the slots before it.</p>
+	 *
+	 * @param state A state with slots [0, slot) filled
+	 * @param slot The slot to fill
+	 * @param index The candidate pool index
+	 * @return True if some selection continues that way
+	 */
+	abstract boolean allows(int[] state, int slot, int index);
+
+	/**
+	 * <p>Lexicographically ordered r-combinations, unranked through the combinatorial number system.</p>
+	 *
+	 * <p>The lexicographic rank of c<sub>0</sub> &lt; ... &lt; c<sub>r-1</sub> is C(n, r) - 1 - &Sigma;
+	 * C(n - 1 - c<sub>i</sub>, r - i), so unranking is finding the combinadic of the complement rank.</p>
+	 */
+	static class Choose extends Selector {
+
+		/** C(k + m, k) at [k][m] for k <= r and m <= n - r, or null if the table would be too large */
+		private final long[][] binomials;
+
+		Choose(final int n, final int r) {
+			super(n, r, exactBinomial(n, r));
+
+			if (this.size > 0 && (long) (r + 1) * (n - r + 1) <= TABLE_LIMIT) {
+				// C(k + m, k) = C(k + m - 1, k - 1) + C(k + m - 1, k), never above C(n, r) = size
+				this.binomials = new long[r + 1][n - r + 1];
+
+				for (int k = 0; k <= r; k++) {
+					for (int m = 0; m <= n - r; m++) {
+						this.binomials[k][m] = k == 0 || m == 0
+								? 1 : this.binomials[k - 1][m] + this.binomials[k][m - 1];
+					}
+				}
+			} else {
+				this.binomials = null;
+			}
+		}
+
+		/**
+		 * @return C(a, k), from the table where possible; a - k never exceeds n - r here
+		 */
+		final long choose(final int a, final int k) {
+			if (this.binomials == null) {
+				return binomial(a, k);
+			}
+
+			return a < k ? 0 : this.binomials[k][a - k];
+		}
+
+		@Override
+		void unrank(final long rank, final int[] state) {
+			long rest = this.size - 1 - rank;
+			int bound = this.n;
+
+			for (int i = 0; i < this.r; i++) {
+				final int k = this.r - i;
+
+				// largest a < bound with C(a, k) <= rest, C(k - 1, k) = 0 so there always is one
+				int lo = k - 1;
+				int hi = bound - 1;
+
+				while (lo < hi) {
+					final int mid = (lo + hi + 1) >>> 1;
+
+					if (choose(mid, k) <= rest) {
+						lo = mid;
+					} else {
+						hi = mid - 1;
+					}
+				}
+
+				state[i] = this.n - 1 - lo;
+				rest -= choose(lo, k);
+				bound = lo;
+			}
+		}
+
+		@Override
+		void first(final int[] state) {
+			for (int i = 0; i < this.r; i++) {
+				state[i] = i;
+			}
+		}
+
+		@Override
+		boolean next(final int[] state) {
+			// the rightmost index that is not yet at its maximum of n - r + i moves up, the ones after it follow
+			for (int i = this.r - 1; i >= 0; i--) {
+				if (state[i] < this.n - this.r + i) {
+					state[i]++;
+
+					for (int j = i + 1; j < this.r; j++) {
+						state[j] = state[j - 1] + 1;
+					}
+
+					return true;
+				}
+			}
+
+			first(state);
+			return false;
+		}
+
+		@Override
+		long rank(final int[] state) {
+			long rest = 0;
+
+			for (int i = 0; i < this.r; i++) {
+				rest += choose(this.n - 1 - state[i], this.r - i);
+			}
+
+			return this.size - 1 - rest;
+		}
+
+		@Override
+		boolean allows(final int[] state, final int slot, final int index) {
+			return slot == 0 || index > state[slot - 1];
+		}
+	}
+
+	/**
+	 * <p>Lexicographically ordered r-permutations, unranked through the factorial number system. Digit i of the rank
+	 * (radix (n - 1 - i)!/(n - r)!) picks among the pool indexes not yet used, making the digits a Lehmer code.</p>
+	 *
+	 * <p>Scratch: the chosen pool indexes in ascending order after the selection, so a state takes 2r entries
+	 * whatever the pool size.</p>
+	 */
+	static final class Permute extends Selector {
+
+		/** The radix of each digit, or null if there is nothing to rank in a long */
+		private final long[] radixes;
+
+		Permute(final int n, final int r) {
+			super(n, r, exactFalling(n, r));
+
+			if (this.size > 0) {
+				this.radixes = new long[r];
+
+				for (int i = r - 1; i >= 0; i--) {
+					this.radixes[i] = i == r - 1 ? 1 : this.radixes[i + 1] * (n - 1 - i);
+				}
+			} else {
+				this.radixes = null;
+			}
+		}
+
+		@Override
+		int stateLength() {
+			return 2 * this.r;
+		}
+
+		@Override
+		void unrank(final long rank, final int[] state) {
+			long rest = rank;
+
+			for (int i = 0; i < this.r; i++) {
+				int index = (int) (rest / this.radixes[i]);
+				rest %= this.radixes[i];
+
+				// the digit counts unused indexes, so skip the used ones up to it, in ascending order
+				for (int j = 0; j < i && state[this.r + j] <= index; j++) {
+					index++;
+				}
+
+				state[i] = index;
+				insert(state, i, index);
+			}
+		}
+
+		@Override
+		void first(final int[] state) {
+			for (int i = 0; i < this.r; i++) {
+				state[i] = i;
+				state[this.r + i] = i;
+			}
+		}
+
+		@Override
+		boolean next(final int[] state) {
+			if (this.r == this.n) {
+				return nextPermutation(state);
+			}
+
+			// release indexes from the right until one can move up to a larger unused index
+			for (int i = this.r - 1; i >= 0; i--) {
+				remove(state, i + 1, state[i]);
+
+				int index = state[i] + 1;
+
+				for (int j = 0; j < i && state[this.r + j] <= index; j++) {
+					if (state[this.r + j] == index) {
+						index++;
+					}
+				}
+
+				if (index < this.n) {
+					state[i] = index;
+					insert(state, i, index);
+
+					// the slots after it take the smallest unused indexes, in order
+					int smallest = 0;
+
+					for (int j = i + 1, k = 0; j < this.r; j++, k++, smallest++) {
+						while (k < j && state[this.r + k] == smallest) {
+							smallest++;
+							k++;
+						}
+
+						state[j] = smallest;
+						insert(state, j, smallest);
+					}
+
+					return true;
+				}
+			}
+
+			first(state);
+			return false;
+		}
+
+		/**
+		 * <p>Add <tt>index</tt> to the <tt>used</tt> ascending indexes of the scratch.</p>
+		 */
+		private void insert(final int[] state, final int used, final int index) {
+			int j = this.r + used;
+
+			for (; j > this.r && state[j - 1] > index; j--) {
+				state[j] = state[j - 1];
+			}
+
+			state[j] = index;
+		}
+
+		/**
+		 * <p>Remove <tt>index</tt> from the <tt>used</tt> ascending indexes of the scratch.</p>
+		 */
+		private void remove(final int[] state, final int used, final int index) {
+			int j = this.r;
+
+			while (state[j] != index) {
+				j++;
+			}
+
+			for (; j < this.r + used - 1; j++) {
+				state[j] = state[j + 1];
+			}
+		}
+
+		/**
+		 * <p>The classic next-permutation for r = n, where every index is always used.</p>
+		 */
+		private boolean nextPermutation(final int[] state) {
+			int i = this.n - 2;
+
+			while (i >= 0 && state[i] > state[i + 1]) {
+				i--;
+			}
+
+			if (i < 0) {
+				first(state);
+				return false;
+			}
+
+			int j = this.n - 1;
+
+			while (state[j] < state[i]) {
+				j--;
+			}
+
+			swap(state, i, j);
+
+			for (int lo = i + 1, hi = this.n - 1; lo < hi; lo++, hi--) {
+				swap(state, lo, hi);
+			}
+
+			return true;
+		}
+
+		@Override
+		long rank(final int[] state) {
+			long rank = 0;
+
+			for (int i = 0; i < this.r; i++) {
+				// the digit is the number of unused pool indexes below the chosen one
+				int digit = state[i];
+
+				for (int j = 0; j < i; j++) {
+					if (state[j] < state[i]) {
+						digit--;
+					}
+				}
+
+				rank = rank * (this.n - i) + digit;
+			}
+
+			return rank;
+		}
+
+		@Override
+		boolean allows(final int[] state, final int slot, final int index) {
+			return unused(state, slot, index);
+		}
+	}
+
+	/**
+	 * <p>r-combinations in revolving door order, where each selection differs from the one before it by a single pool
+	 * index, so at most two of its slots change. The last selection also differs from the first by one index.</p>
+	 *
+	 * <p>With the indexes as 1-based c<sub>1</sub> &lt; ... &lt; c<sub>r</sub>, the rank is the alternating sum
+	 * &Sigma; (-1)<sup>r-i</sup> (C(c<sub>i</sub>, i) - 1), see Kreher and Stinson, <i>Combinatorial Algorithms</i>,
+	 * section 2.3.3. The methods taking an offset work on a selection stored at that offset, for {@link JohnsonTrotter}.
+	 * </p>
+	 */
+	static final class RevolvingDoor extends Choose {
+
+		RevolvingDoor(final int n, final int r) {
+			super(n, r);
+		}
+
+		@Override
+		void unrank(final long rank, final int[] state) {
+			unrank(rank, state, 0);
+		}
+
+		void unrank(final long rank, final int[] state, final int offset) {
+			long rest = rank;
+			int bound = this.n;
+
+			for (int k = this.r; k >= 1; k--) {
+				// largest a <= bound with C(a, k) <= rest
+				int lo = k - 1;
+				int hi = bound;
+
+				while (lo < hi) {
+					final int mid = (lo + hi + 1) >>> 1;
+
+					if (choose(mid, k) <= rest) {
+						lo = mid;
+					} else {
+						hi = mid - 1;
+					}
+				}
+
+				state[offset + k - 1] = lo;
+				rest = choose(lo + 1, k) - rest - 1;
+				bound = lo;
+			}
+		}
+
+		@Override
+		void first(final int[] state) {
+			first(state, 0);
+		}
+
+		void first(final int[] state, final int offset) {
+			for (int i = 0; i < this.r; i++) {
+				state[offset + i] = i;
+			}
+		}
+
+		@Override
+		boolean next(final int[] state) {
+			return next(state, 0);
+		}
+
+		boolean next(final int[] state, final int offset) {
+			if (this.size >= 0 && this.size <= 1 || isLast(state, offset)) {
+				first(state, offset);
+				return false;
+			}
+
+			final int k = this.r;
+
+			// in 1-based terms: j is the smallest with c_j != j, and c_(k + 1) is taken as n + 1
+			int j = 1;
+			while (j <= k && state[offset + j - 1] == j - 1) {
+				j++;
+			}
+
+			if ((k - j) % 2 != 0) {
+				if (j == 1) {
+					state[offset]--;
+				} else {
+					state[offset + j - 2] = j - 1;
+
+					if (j > 2) {
+						state[offset + j - 3] = j - 2;
+					}
+				}
+			} else {
+				final int after = j < k ? state[offset + j] : this.n;
+
+				if (after != state[offset + j - 1] + 1) {
+					if (j > 1) {
+						state[offset + j - 2] = state[offset + j - 1];
+					}
+
+					state[offset + j - 1]++;
+				} else {
+					state[offset + j] = state[offset + j - 1];
+					state[offset + j - 1] = j - 1;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * @return True for the selection of the last rank, 0 ... r - 2 followed by n - 1
+		 */
+		private boolean isLast(final int[] state, final int offset) {
+			for (int i = 0; i < this.r - 1; i++) {
+				if (state[offset + i] != i) {
+					return false;
+				}
+			}
+
+			return state[offset + this.r - 1] == this.n - 1;
+		}
+
+		@Override
+		long rank(final int[] state) {
+			return rank(state, 0);
+		}
+
+		long rank(final int[] state, final int offset) {
+			long rank = 0;
+
+			// summed from the largest term down, every partial sum stays within [0, size)
+			for (int k = this.r; k >= 1; k--) {
+				final long term = choose(state[offset + k - 1] + 1, k) - 1;
+				rank = (this.r - k) % 2 == 0 ? rank + term : rank - term;
+			}
+
+			return rank;
+		}
+	}
+
+	/**
+	 * <p>r-permutations in minimal change order. Each subset of r pool indexes, taken in {@link RevolvingDoor} order, is
+	 * arranged in all its orders following the Steinhaus-Johnson-Trotter algorithm, so that within a subset each
+	 * selection differs from the one before it by swapping two adjacent slots. Moving on to the next subset replaces
+	 * one index and restores the first arrangement, changing up to four slots. For r = n there is a single subset,
+	 * making this the plain changes order of all permutations.</p>
+	 *
+	 * <p>The rank is the subset rank times r! plus the arrangement rank, see Kreher and Stinson, <i>Combinatorial
+	 * Algorithms</i>, section 2.4.2.</p>
+	 *
+	 * <p>Scratch: the subset in ascending order, the arrangement as positions within the subset, and the direction of
+	 * each arrangement value, -1 for left and 1 for right.</p>
+	 */
+	static final class JohnsonTrotter extends Selector {
+
+		private final RevolvingDoor subsets;
+
+		/** The number of arrangements per arrangement of the values up to v, r!/(v + 1)! at [v] */
+		private final long[] radixes;
+
+		JohnsonTrotter(final int n, final int r) {
+			super(n, r, exactFalling(n, r));
+
+			this.subsets = new RevolvingDoor(n, r);
+
+			if (this.size > 0) {
+				this.radixes = new long[r];
+
+				for (int v = r - 1; v >= 0; v--) {
+					this.radixes[v] = v == r - 1 ? 1 : this.radixes[v + 1] * (v + 2);
+				}
+			} else {
+				this.radixes = null;
+			}
+		}
+
+		@Override
+		int stateLength() {
+			return 4 * this.r;
+		}
+
+		@Override
+		void unrank(final long rank, final int[] state) {
+			if (this.r == 0) {
+				return;
+			}
+
+			final long arrangements = this.radixes[0];
+			this.subsets.unrank(rank / arrangements, state, this.r);
+
+			final int positions = 2 * this.r;
+			final int directions = 3 * this.r;
+			final long arrangement = rank % arrangements;
+
+			// insert the values one by one, value v sweeping left while the arrangement of the values below it has an
+			// even rank and right while it has an odd one
+			long below = 0;
+
+			for (int v = 0; v < this.r; v++) {
+				final long current = arrangement / this.radixes[v];
+				final int offset = (int) (current - (v + 1) * below);
+				final int at = below % 2 == 0 ? v - offset : offset;
+
+				System.arraycopy(state, positions + at, state, positions + at + 1, v - at);
+				state[positions + at] = v;
+				state[directions + v] = below % 2 == 0 ? -1 : 1;
+
+				below = current;
+			}
+
+			arrange(state);
+		}
+
+		@Override
+		void first(final int[] state) {
+			this.subsets.first(state, this.r);
+
+			for (int i = 0; i < this.r; i++) {
+				state[2 * this.r + i] = i;
+				state[3 * this.r + i] = -1;
+			}
+
+			arrange(state);
+		}
+
+		@Override
+		boolean next(final int[] state) {
+			final boolean wrapped = !nextArrangement(state) && !this.subsets.next(state, this.r);
+			arrange(state);
+
+			return !wrapped;
+		}
+
+		/**
+		 * <p>Move the largest mobile value one step in its direction, and reverse the direction of every larger value.
+		 * A value is mobile if the neighbour it faces is smaller.</p>
+		 *
+		 * @return False if no value was mobile, in which case the arrangement is reset to the first
+		 */
+		private boolean nextArrangement(final int[] state) {
+			final int positions = 2 * this.r;
+			final int directions = 3 * this.r;
+
+			int mobile = -1;
+			int from = -1;
+
+			for (int i = 0; i < this.r; i++) {
+				final int v = state[positions + i];
+				final int to = i + state[directions + v];
+
+				if (v > mobile && to >= 0 && to < this.r && state[positions + to] < v) {
+					mobile = v;
+					from = i;
+				}
+			}
+
+			if (mobile < 0) {
+				for (int i = 0; i < this.r; i++) {
+					state[positions + i] = i;
+					state[directions + i] = -1;
+				}
+
+				return false;
+			}
+
+			swap(state, positions + from, positions + from + state[directions + mobile]);
+
+			for (int v = mobile + 1; v < this.r; v++) {
+				state[directions + v] = -state[directions + v];
+			}
+
+			return true;
+		}
+
+		/**
+		 * <p>Write the selection from the subset and arrangement in scratch.</p>
+		 */
+		private void arrange(final int[] state) {
+			for (int i = 0; i < this.r; i++) {
+				state[i] = state[this.r + state[2 * this.r + i]];
+			}
+		}
+
+		@Override
+		long rank(final int[] state) {
+			final int subset = this.r;
+			final int positions = 2 * this.r;
+
+			// recover the ascending subset and the arrangement from the selection
+			for (int i = 0; i < this.r; i++) {
+				int j = i;
+
+				while (j > 0 && state[subset + j - 1] > state[i]) {
+					state[subset + j] = state[subset + j - 1];
+					j--;
+				}
+
+				state[subset + j] = state[i];
+			}
+
+			for (int i = 0; i < this.r; i++) {
+				int position = 0;
+
+				while (state[subset + position] != state[i]) {
+					position++;
+				}
+
+				state[positions + i] = position;
+			}
+
+			long arrangement = 0;
+
+			for (int v = 1; v < this.r; v++) {
+				// the number of smaller values before v
+				int before = 0;
+
+				for (int i = 0; state[positions + i] != v; i++) {
+					if (state[positions + i] < v) {
+						before++;
+					}
+				}
+
+				arrangement = arrangement % 2 == 0
+						? (v + 1) * arrangement + v - before
+						: (v + 1) * arrangement + before;
+			}
+
+			return this.subsets.rank(state, subset) * (this.r == 0 ? 1 : this.radixes[0]) + arrangement;
+		}
+
+		@Override
+		boolean allows(final int[] state, final int slot, final int index) {
+			return unused(state, slot, index);
+		}
+	}
+
+	/**
+	 * <p>Lexicographically ordered r-multisets, non-decreasing pool indexes c<sub>0</sub> &lt;= ... &lt;=
+	 * c<sub>r-1</sub>. Adding i to each c<sub>i</sub> makes them an r-combination of n + r - 1 indexes in the same
+	 * order, so the rank arithmetic is that of {@link Choose}.</p>
+	 */
+	static final class Multichoose extends Selector {
+
+		/** The r-combinations of n + r - 1 */
+		private final Choose shifted;
+
+		Multichoose(final int n, final int r) {
+			this(n, r, new Choose(Math.max(n + r - 1, 0), r));
+		}
+
+		private Multichoose(final int n, final int r, final Choose shifted) {
+			super(n, r, shifted.count);
+			this.shifted = shifted;
+		}
+
+		@Override
+		void unrank(final long rank, final int[] state) {
+			this.shifted.unrank(rank, state);
+
+			for (int i = 0; i < this.r; i++) {
+				state[i] -= i;
+			}
+		}
+
+		@Override
+		void first(final int[] state) {
+			for (int i = 0; i < this.r; i++) {
+				state[i] = 0;
+			}
+		}
+
+		@Override
+		boolean next(final int[] state) {
+			// the rightmost index below n - 1 moves up, the ones after it follow at the same index
+			for (int i = this.r - 1; i >= 0; i--) {
+				if (state[i] < this.n - 1) {
+					state[i]++;
+
+					for (int j = i + 1; j < this.r; j++) {
+						state[j] = state[i];
+					}
+
+					return true;
+				}
+			}
+
+			first(state);
+			return false;
+		}
+
+		@Override
+		long rank(final int[] state) {
+			long rest = 0;
+
+			for (int i = 0; i < this.r; i++) {
+				rest += this.shifted.choose(this.shifted.n - 1 - state[i] - i, this.r - i);
+			}
+
+			return this.size - 1 - rest;
+		}
+
+		@Override
+		boolean allows(final int[] state, final int slot, final int index) {
+			return slot == 0 || index >= state[slot - 1];
+		}
+	}
+
+	/**
+	 * <p>The Cartesian power of the pool in lexicographic order, each selection being the r digits of its rank in base
+	 * n.</p>
+	 */
+	static final class Power extends Selector {
+
+		Power(final int n, final int r) {
+			super(n, r, BigInteger.valueOf(n).pow(r));
+		}
+
+		@Override
+		void unrank(final long rank, final int[] state) {
+			long rest = rank;
+
+			for (int i = this.r - 1; i >= 0; i--) {
+				state[i] = (int) (rest % this.n);
+				rest /= this.n;
+			}
+		}
+
+		@Override
+		void first(final int[] state) {
+			for (int i = 0; i < this.r; i++) {
+				state[i] = 0;
+			}
+		}
+
+		@Override
+		boolean next(final int[] state) {
+			for (int i = this.r - 1; i >= 0; i--) {
+				if (++state[i] < this.n) {
+					return true;
+				}
+
+				state[i] = 0;
+			}
+
+			return false;
+		}
+
+		@Override
+		long rank(final int[] state) {
+			long rank = 0;
+
+			for (int i = 0; i < this.r; i++) {
+				rank = rank * this.n + state[i];
+			}
+
+			return rank;
+		}
+
+		@Override
+		boolean allows(final int[] state, final int slot, final int index) {
+			return true;
+		}
+	}
+
+	/**
+	 * <p>Lexicographically ordered r-arrangements of a pool with equal elements, each distinct arrangement once. Equal
+	 * elements are represented by the first pool index among them, and distinct values are ordered by that index.</p>
+	 *
+	 * <p>The number of arrangements of length j from the first v distinct values, with at most m<sub>u</sub> copies of
+	 * value u, follows from those of the first v - 1 values: W<sub>v</sub>(j) = &Sigma;<sub>k &lt;= m<sub>v</sub></sub>
+	 * W<sub>v-1</sub>(j - k) C(j, k), choosing the k positions of value v. For r = n that is the multinomial
+	 * n!/(m<sub>0</sub>! ... m<sub>d-1</sub>!).</p>
+	 *
+	 * <p>Scratch: the remaining multiplicity of each distinct value after the selection.</p>
+	 */
+	static final class Arrangement extends Selector {
+
+		/** Per pool index: the ordinal of its value, or -1 if an equal element has a lower pool index */
+		private final int[] ordinals;
+
+		/** Per distinct value: the pool index representing it */
+		private final int[] values;
+
+		/** Per distinct value: the number of equal elements in the pool */
+		private final int[] multiplicities;
+
+		/** C(j, k) at [j][k] for j, k <= r, or null if the table would be too large */
+		private final long[][] binomials;
+
+		private Arrangement(final int r, final int[] ordinals, final int[] values, final int[] multiplicities) {
+			super(ordinals.length, r, exactArrangements(multiplicities, r));
+
+			this.ordinals = ordinals;
+			this.values = values;
+			this.multiplicities = multiplicities;
+
+			if (this.size > 0 && (long) (r + 1) * (r + 1) <= TABLE_LIMIT) {
+				// only entries that count some arrangement are used, and those are at most size
+				this.binomials = new long[r + 1][r + 1];
+
+				for (int j = 0; j <= r; j++) {
+					for (int k = 0; k <= j; k++) {
+						this.binomials[j][k] = k == 0 || k == j
+								? 1 : this.binomials[j - 1][k - 1] + this.binomials[j - 1][k];
+					}
+				}
+			} else {
+				this.binomials = null;
+			}
+		}
+
+		static Arrangement of(final Pool pool, final int n, final int r) {
+			final HashMap<Tuple, Integer> seen = new HashMap<>();
+			final int[] ordinals = new int[n];
+			final int[] values = new int[n];
+			final int[] multiplicities = new int[n];
+
+			for (int i = 0; i < n; i++) {
+				final Integer ordinal = seen.putIfAbsent(pool.get(i), seen.size());
+
+				if (ordinal == null) {
+					ordinals[i] = seen.size() - 1;
+					values[ordinals[i]] = i;
+					multiplicities[ordinals[i]] = 1;
+				} else {
+					ordinals[i] = -1;
+					multiplicities[ordinal]++;
+				}
+			}
+
+			return new Arrangement(r, ordinals, Arrays.copyOf(values, seen.size()),
+					Arrays.copyOf(multiplicities, seen.size()));
+		}
+
+		@Override
+		int stateLength() {
+			return this.r + this.values.length;
+		}
+
+		@Override
+		void unrank(final long rank, final int[] state) {
+			long rest = rank;
+			reset(state);
+
+			for (int i = 0; i < this.r; i++) {
+				for (int v = 0; v < this.values.length; v++) {
+					if (state[this.r + v] == 0) {
+						continue;
+					}
+
+					state[this.r + v]--;
+					final long completions = arrangements(state, this.r - 1 - i);
+
+					if (rest < completions) {
+						state[i] = this.values[v];
+						break;
+					}
+
+					rest -= completions;
+					state[this.r + v]++;
+				}
+			}
+		}
+
+		@Override
+		void first(final int[] state) {
+			reset(state);
+			fill(state, 0);
+		}
+
+		@Override
+		boolean next(final int[] state) {
+			reset(state);
+
+			for (int i = 0; i < this.r; i++) {
+				state[this.r + this.ordinals[state[i]]]--;
+			}
+
+			// the rightmost slot that can take a larger remaining value does, the ones after it take the smallest
+			for (int i = this.r - 1; i >= 0; i--) {
+				final int current = this.ordinals[state[i]];
+				state[this.r + current]++;
+
+				for (int v = current + 1; v < this.values.length; v++) {
+					if (state[this.r + v] > 0) {
+						state[this.r + v]--;
+						state[i] = this.values[v];
+						fill(state, i + 1);
+						return true;
+					}
+				}
+			}
+
+			first(state);
+			return false;
+		}
+
+		@Override
+		long rank(final int[] state) {
+			long rank = 0;
+			reset(state);
+
+			for (int i = 0; i < this.r; i++) {
+				final int current = this.ordinals[state[i]];
+
+				for (int v = 0; v < current; v++) {
+					if (state[this.r + v] > 0) {
+						state[this.r + v]--;
+						rank += arrangements(state, this.r - 1 - i);
+						state[this.r + v]++;
+					}
+				}
+
+				state[this.r + current]--;
+			}
+
+			return rank;
+		}
+
+		@Override
+		boolean allows(final int[] state, final int slot, final int index) {
+			if (this.ordinals[index] < 0) {
+				return false;
+			}
+
+			int used = 0;
+
+			for (int i = 0; i < slot; i++) {
+				if (state[i] == index) {
+					used++;
+				}
+			}
+
+			return used < this.multiplicities[this.ordinals[index]];
+		}
+
+		private void reset(final int[] state) {
+			System.arraycopy(this.multiplicities, 0, state, this.r, this.multiplicities.length);
+		}
+
+		/**
+		 * <p>Fill the slots from <tt>slot</tt> on with the smallest remaining values, in order.</p>
+		 */
+		private void fill(final int[] state, final int slot) {
+			int v = 0;
+
+			for (int i = slot; i < this.r && v < this.values.length; ) {
+				if (state[this.r + v] > 0) {
+					state[this.r + v]--;
+					state[i++] = this.values[v];
+				} else {
+					v++;
+				}
+			}
+		}
+
+		/**
+		 * @return The number of arrangements of <tt>length</tt> from the remaining multiplicities in the scratch
+		 */
+		private long arrangements(final int[] state, final int length) {
+			final long[] ways = new long[length + 1];
+			ways[0] = 1;
+
+			for (int v = 0; v < this.values.length; v++) {
+				final int m = state[this.r + v];
+
+				// descending, so ways[j - k] still counts the arrangements without value v
+				for (int j = length; j > 0; j--) {
+					for (int k = 1; k <= Math.min(m, j); k++) {
+						if (ways[j - k] != 0) {
+							ways[j] += ways[j - k] * (this.binomials == null ? binomial(j, k) : this.binomials[j][k]);
+						}
+					}
+				}
+			}
+
+			return ways[length];
+		}
+
+		static BigInteger exactArrangements(final int[] multiplicities, final int r) {
+			final BigInteger[] ways = new BigInteger[r + 1];
+			Arrays.fill(ways, BigInteger.ZERO);
+			ways[0] = BigInteger.ONE;
+
+			for (final int m : multiplicities) {
+				for (int j = r; j > 0; j--) {
+					for (int k = 1; k <= Math.min(m, j); k++) {
+						ways[j] = ways[j].add(ways[j - k].multiply(exactBinomial(j, k)));
+					}
+				}
+			}
+
+			return ways[r];
+		}
+	}
+
+	/**
+	 * @return True if <tt>index</tt> is none of the first <tt>slot</tt> entries of <tt>state</tt>
+	 */
+	static boolean unused(final int[] state, final int slot, final int index) {
+		for (int i = 0; i < slot; i++) {
+			if (state[i] == index) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	static void swap(final int[] array, final int i, final int j) {
+		final int t = array[i];
+		array[i] = array[j];
+		array[j] = t;
+	}
+
+	/**
+	 * @return C(n, k), which must fit in a long
+	 */
+	static long binomial(final long n, final int k) {
+		if (k < 0 || k > n) {
+			return 0;
+		}
+
+		final long j = Math.min(k, n - k);
+		long result = 1;
+
+		for (long i = 1; i <= j; i++) {
+			// result * (n - j + i) is divisible by i, divide first where possible to stay in range
+			final long gcd = gcd(result, i);
+			result = Math.multiplyExact(result / gcd, (n - j + i) / (i / gcd));
+		}
+
+		return result;
+	}
+
+	static BigInteger exactBinomial(final long n, final int k) {
+		if (k < 0 || k > n) {
+			return BigInteger.ZERO;
+		}
+
+		final long j = Math.min(k, n - k);
+		BigInteger result = BigInteger.ONE;
+
+		for (long i = 1; i <= j; i++) {
+			result = result.multiply(BigInteger.valueOf(n - j + i)).divide(BigInteger.valueOf(i));
+		}
+
+		return result;
+	}
+
+	static BigInteger exactFalling(final long n, final int k) {
+		if (k > n) {
+			return BigInteger.ZERO;
+		}
+
+		BigInteger result = BigInteger.ONE;
+
+		for (long i = 0; i < k; i++) {
+			result = result.multiply(BigInteger.valueOf(n - i));
+		}
+
+		return result;
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			final long t = a % b;
+			a = b;
+			b = t;
+		}
+
+		return a;
+	}
+}
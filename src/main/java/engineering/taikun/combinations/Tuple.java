@@ -16,11 +16,17 @@ package engineering.taikun.combinations;
 import java.util.Arrays;
 
 /**
- * Basically an Object[]
+ * <p>Basically an Object[]</p>
+ *
+ * <p>The hash code is computed on first use and kept, so the elements of a tuple must not be changed once it may have
+ * been hashed.</p>
  */
 public class Tuple {
 	public final Object[] o;
 
+	/** The hash code, or 0 if not computed yet */
+	private int hash;
+
 	Tuple(final Object... o) {
 		this.o = o;
 	}
@@ -44,7 +50,15 @@ public class Tuple {
 
 	@Override
 	public int hashCode() {
-		return Arrays.hashCode(this.o);
+		int hash = this.hash;
+
+		// a tuple whose hash code is 0 recomputes it, as String does
+		if (hash == 0) {
+			hash = Arrays.hashCode(this.o);
+			this.hash = hash;
+		}
+
+		return hash;
 	}
 
 	public static Tuple t(final Object... o) {
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>A least recently used cache of the tuples of several {@link CachedSupplier}s, bounded by one byte budget, see
+ * {@link CachePolicy#shared(TupleCache)}.</p>
+ *
+ * <p>The size of an entry is estimated as the {@link Tuple}s and their Object[]s, not the elements they refer to,
+ * which are normally shared with the pools they were selected from. When an entry would exceed the budget, the least
+ * recently used entries are evicted until it fits; an entry larger than the whole budget is not kept at all.</p>
+ *
+ * <p>A TupleCache is thread-safe.</p>
+ */
+public final class TupleCache {
+
+	private final long budget;
+
+	/** The tuples of each supplier, least recently used first */
+	private final LinkedHashMap<CachedSupplier, Tuple[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param budget The largest estimated number of bytes the kept tuples may take
+	 * @throws IllegalArgumentException If <tt>budget</tt> is negative
+	 */
+	public TupleCache(final long budget) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("Negative budget: " + budget);
+		}
+
+		this.budget = budget;
+	}
+
+	/**
+	 * @return The tuples kept for <tt>supplier</tt>, or null on a miss
+	 */
+	synchronized Tuple[] lookup(final CachedSupplier supplier) {
+		final Tuple[] tuples = this.entries.get(supplier);
+
+		if (tuples == null) {
+			this.misses++;
+		} else {
+			this.hits++;
+		}
+
+		return tuples;
+	}
+
+	synchronized void store(final CachedSupplier supplier, final Tuple[] tuples) {
+		final long size = bytes(tuples);
+
+		if (size > this.budget || this.entries.containsKey(supplier)) {
+			return;
+		}
+
+		for (final Iterator<Map.Entry<CachedSupplier, Tuple[]>> iterator = this.entries.entrySet().iterator();
+				this.bytes + size > this.budget; ) {
+			this.bytes -= bytes(iterator.next().getValue());
+			iterator.remove();
+			this.evictions++;
+		}
+
+		this.entries.put(supplier, tuples);
+		this.bytes += size;
+	}
+
+	/**
+	 * <p>Drop all kept tuples. The statistics are kept.</p>
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.bytes = 0;
+	}
+
+	/**
+	 * @return The byte budget
+	 */
+	public long budget() {
+		return this.budget;
+	}
+
+	/**
+	 * @return The estimated number of bytes the kept tuples take
+	 */
+	public synchronized long bytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return The number of calls served from the cache
+	 */
+	public synchronized long hits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return The number of calls that had to generate their tuples
+	 */
+	public synchronized long misses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return The number of entries evicted to make room for others
+	 */
+	public synchronized long evictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * @return The estimated size of <tt>tuples</tt>: per tuple an object header, reference and cached hash, and an
+	 * array of references, on a 64 bit JVM with compressed references
+	 */
+	static long bytes(final Tuple[] tuples) {
+		long bytes = 16 + 4L * tuples.length;
+
+		for (final Tuple tuple : tuples) {
+			// a 12 byte header, the array reference and the int hash, aligned to 24 bytes
+			bytes += 24 + (16 + 4L * tuple.o.length + 7 & ~7);
+		}
+
+		return bytes;
+	}
+}
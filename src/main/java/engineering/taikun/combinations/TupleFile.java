@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * <p>The tuples of a {@link TupleSupplier}, stored in a compact binary file and read back through a memory mapping, so
+ * that a large suite is generated once and loaded without regenerating it.</p>
+ *
+ * <p>Every distinct element is stored once, in a dictionary, and each tuple is a fixed-width row of codes into it.
+ * Codes take 1, 2 or 4 bytes, the fewest that number the dictionary. Rows are as wide as the widest tuple, and code 0
+ * pads the rows of narrower ones. The layout is:</p>
+ *
+ * <pre>
+ * header      magic "TUPL", version, code bytes, 2 reserved bytes, int width, int dictionary size, long rows
+ * rows        rows x width codes, big-endian
+ * dictionary  the elements for codes 1 to dictionary size, as a serialized Object[]
+ * </pre>
+ *
+ * <p>Elements must therefore be {@link Serializable}. Reading deserializes only strings, boxed primitives,
+ * {@link BigInteger}s, {@link BigDecimal}s, enums and arrays of these, unless more classes are allowed by
+ * {@link #read(Path, Class[])}, and rejects files that hold anything else. Deserializing still runs the code of the
+ * allowed classes on the file's contents, so only open files from trusted sources.</p>
+ *
+ * <p>Reading maps the rows and deserializes only the dictionary, so
+ * opening a file costs the same whatever its number of rows. Tuples are decoded from the mapping on access: by row
+ * with {@link #get(long)}, all of them with {@link #get()}, or without allocating per tuple with
+ * {@link #forEach(Consumer)}. A TupleFile is thread-safe.</p>
+ *
+ * <h4>Example</h4>
+ *
+ * <pre>
+ * TupleFile.write(path, new RelationFilter(combinator, ALL_PAIRS(5)));
+ * ...
+ * TupleFile.read(path).get()
+ * </pre>
+ */
+public final class TupleFile implements TupleSupplier {
+
+	private static final int MAGIC = 0x5455504c;
+	private static final byte VERSION = 1;
+	private static final int HEADER_BYTES = 24;
+
+	/** The element classes the dictionary may always hold, besides enums and arrays */
+	private static final HashSet<Class<?>> DICTIONARY_CLASSES = new HashSet<>(Arrays.asList(
+			Object.class, String.class, Number.class, Enum.class, Boolean.class, Character.class, Byte.class,
+			Short.class, Integer.class, Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class
+	));
+
+	/** The elements, at their code; code 0 is padding */
+	private final Object[] dictionary;
+
+	/** The number of codes in each row */
+	private final int width;
+
+	/** The number of rows */
+	private final long rows;
+
+	/** The number of bytes per code */
+	private final int codeBytes;
+
+	/** The mapped rows, each segment holding rowsPerSegment rows but the last */
+	private final ByteBuffer[] segments;
+	private final long rowsPerSegment;
+
+	private TupleFile(
+			final Object[] dictionary, final int width, final long rows, final int code_bytes,
+			final ByteBuffer[] segments, final long rows_per_segment
+	) {
+		this.dictionary = dictionary;
+		this.width = width;
+		this.rows = rows;
+		this.codeBytes = code_bytes;
+		this.segments = segments;
+		this.rowsPerSegment = rows_per_segment;
+	}
+
+	/**
+	 * <p>Write the tuples of <tt>supplier</tt> to <tt>path</tt>, replacing any file there.</p>
+	 *
+	 * <p>The supplier is streamed twice: once to build the dictionary and find the row width, once to write the rows.
+	 * Neither pass holds more than the dictionary in memory.</p>
+	 *
+	 * @param path The file to write
+	 * @param supplier The tuples to store
+	 * @return The number of rows written
+	 * @throws IOException If the file cannot be written, or an element is not serializable
+	 * @throws IllegalStateException If the supplier does not return the same sequence twice
+	 */
+	public static long write(final Path path, final TupleSupplier supplier) throws IOException {
+		final HashMap<Object, Integer> codes = new HashMap<>();
+		final ArrayList<Object> elements = new ArrayList<>();
+		int width = 0;
+		long rows = 0;
+
+		try (final Stream<Tuple> tuples = supplier.get()) {
+			for (final Iterator<Tuple> iterator = tuples.iterator(); iterator.hasNext(); rows++) {
+				final Tuple tuple = iterator.next();
+				width = Math.max(width, tuple.o.length);
+
+				for (final Object element : tuple.o) {
+					if (!codes.containsKey(element)) {
+						elements.add(element);
+						codes.put(element, elements.size());
+					}
+				}
+			}
+		}
+
+		final int code_bytes = bytesFor(elements.size());
+		long written = 0;
+
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte(code_bytes);
+			out.writeShort(0);
+			out.writeInt(width);
+			out.writeInt(elements.size());
+			out.writeLong(rows);
+
+			try (final Stream<Tuple> tuples = supplier.get()) {
+				for (final Iterator<Tuple> iterator = tuples.iterator(); iterator.hasNext(); written++) {
+					final Tuple tuple = iterator.next();
+
+					if (written == rows || tuple.o.length > width) {
+						throw new IllegalStateException("Supplier returned a different sequence the second time");
+					}
+
+					for (int i = 0; i < width; i++) {
+						final Integer code = i < tuple.o.length ? codes.get(tuple.o[i]) : Integer.valueOf(0);
+
+						if (code == null) {
+							throw new IllegalStateException("Supplier returned a different sequence the second time");
+						}
+
+						writeCode(out, code_bytes, code);
+					}
+				}
+			}
+
+			if (written != rows) {
+				throw new IllegalStateException(
+						"Supplier returned " + written + " tuples the second time, not " + rows
+				);
+			}
+
+			final ObjectOutputStream dictionary = new ObjectOutputStream(out);
+			dictionary.writeObject(elements.toArray());
+			dictionary.flush();
+		}
+
+		return rows;
+	}
+
+	/**
+	 * <p>Open a file written by {@link #write(Path, TupleSupplier)}. The rows are mapped, not read, and the file can be
+	 * closed by other processes once this returns.</p>
+	 *
+	 * <p>The dictionary is deserialized with an allow-list of classes, see the class documentation. Only open files
+	 * from trusted sources.</p>
+	 *
+	 * @param path The file to read
+	 * @param allowed The element classes to allow besides the standard ones, with their arrays
+	 * @return A supplier of the stored tuples
+	 * @throws IOException If the file cannot be read, is not a tuple file or holds an element of another class
+	 */
+	public static TupleFile read(final Path path, final Class<?>... allowed) throws IOException {
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// read the whole header
+			}
+
+			header.flip();
+
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.get() != VERSION) {
+				throw new IOException(path + " is not a tuple file of version " + VERSION);
+			}
+
+			final int code_bytes = header.get();
+			header.getShort();
+			final int width = header.getInt();
+			final int size = header.getInt();
+			final long rows = header.getLong();
+
+			if (code_bytes != bytesFor(size) || width < 0 || rows < 0) {
+				throw new IOException(path + " has a corrupt header");
+			}
+
+			// whole rows per mapping, as a mapping holds at most Integer.MAX_VALUE bytes
+			final long row_bytes = (long) width * code_bytes;
+			final long rows_per_segment = row_bytes == 0 ? Long.MAX_VALUE : Integer.MAX_VALUE / row_bytes;
+			final ByteBuffer[] segments = new ByteBuffer[row_bytes == 0 ? 0 : (int) ((rows + rows_per_segment - 1) /
+					rows_per_segment)];
+
+			for (int i = 0; i < segments.length; i++) {
+				final long first = i * rows_per_segment;
+
+				segments[i] = channel.map(
+						FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * row_bytes,
+						Math.min(rows_per_segment, rows - first) * row_bytes
+				);
+			}
+
+			channel.position(HEADER_BYTES + rows * row_bytes);
+
+			final Object[] elements;
+
+			try {
+				elements = (Object[]) new DictionaryInputStream(
+						new BufferedInputStream(Channels.newInputStream(channel)), allowed
+				).readObject();
+			} catch (final InvalidClassException e) {
+				throw new IOException(path + " holds an element of a class that is not allowed", e);
+			} catch (final ClassNotFoundException | ClassCastException e) {
+				throw new IOException(path + " has a corrupt dictionary", e);
+			}
+
+			if (elements.length != size) {
+				throw new IOException(path + " has a corrupt dictionary");
+			}
+
+			final Object[] dictionary = new Object[size + 1];
+			System.arraycopy(elements, 0, dictionary, 1, size);
+
+			return new TupleFile(dictionary, width, rows, code_bytes, segments, rows_per_segment);
+		}
+	}
+
+	/**
+	 * @return A lazily constructed stream of the stored tuples, decoded from the mapping
+	 */
+	@Override
+	public Stream<Tuple> get() {
+		return LongStream.range(0, this.rows).mapToObj(this::get);
+	}
+
+	/**
+	 * @param row The zero-based row
+	 * @return The tuple stored at that row
+	 * @throws IndexOutOfBoundsException If the row is negative or not less than the number of rows
+	 */
+	public Tuple get(final long row) {
+		if (row < 0 || row >= this.rows) {
+			throw new IndexOutOfBoundsException("Row " + row + " outside of [0, " + this.rows + ')');
+		}
+
+		final Object[] o = new Object[this.width];
+		final int width = decode(row, o);
+
+		return new Tuple(width == o.length ? o : Arrays.copyOf(o, width));
+	}
+
+	/**
+	 * <p>Pass every stored tuple to <tt>action</tt>, in row order, decoding each into one reused buffer that is handed
+	 * out as a {@link TupleView}. Nothing is allocated per tuple.</p>
+	 *
+	 * @param action Receives the reused view of each tuple
+	 */
+	public void forEach(final Consumer<TupleView> action) {
+		final TupleView view = new TupleView(new Object[this.width]);
+
+		for (long row = 0; row < this.rows; row++) {
+			view.width = decode(row, view.o);
+			action.accept(view);
+		}
+	}
+
+	/**
+	 * @return The number of stored tuples
+	 */
+	public long size() {
+		return this.rows;
+	}
+
+	/**
+	 * @return The width of the widest stored tuple
+	 */
+	public int width() {
+		return this.width;
+	}
+
+	/**
+	 * <p>Decode the codes of <tt>row</tt> into <tt>o</tt>.</p>
+	 *
+	 * @return The width of the tuple, the number of codes before the padding
+	 */
+	private int decode(final long row, final Object[] o) {
+		final ByteBuffer segment = this.segments.length == 0 ? null : this.segments[(int) (row / this.rowsPerSegment)];
+		int offset = (int) (row % this.rowsPerSegment) * this.width * this.codeBytes;
+
+		for (int i = 0; i < this.width; i++, offset += this.codeBytes) {
+			final int code;
+
+			switch (this.codeBytes) {
+				case 1:
+					code = segment.get(offset) & 0xff;
+					break;
+				case 2:
+					code = segment.getShort(offset) & 0xffff;
+					break;
+				default:
+					code = segment.getInt(offset);
+			}
+
+			if (code == 0) {
+				return i;
+			}
+
+			o[i] = this.dictionary[code];
+		}
+
+		return this.width;
+	}
+
+	/**
+	 * <p>Reads the dictionary, resolving only the allowed classes, so that a crafted file cannot instantiate others.
+	 * </p>
+	 */
+	private static final class DictionaryInputStream extends ObjectInputStream {
+
+		private final HashSet<Class<?>> allowed;
+
+		DictionaryInputStream(final InputStream in, final Class<?>[] allowed) throws IOException {
+			super(in);
+			this.allowed = new HashSet<>(Arrays.asList(allowed));
+		}
+
+		@Override
+		protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			final Class<?> type = super.resolveClass(desc);
+			Class<?> component = type;
+
+			while (component.isArray()) {
+				component = component.getComponentType();
+			}
+
+			if (!component.isPrimitive() && !component.isEnum() && !DICTIONARY_CLASSES.contains(component) &&
+					!this.allowed.contains(component)) {
+				throw new InvalidClassException(desc.getName(), "Not an allowed element class");
+			}
+
+			return type;
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(final String[] interfaces) throws IOException {
+			throw new InvalidClassException("Proxy", "Not an allowed element class");
+		}
+	}
+
+	private static int bytesFor(final int size) {
+		return size < 1 << 8 ? 1 : size < 1 << 16 ? 2 : 4;
+	}
+
+	private static void writeCode(final DataOutputStream out, final int code_bytes, final int code) throws IOException {
+		switch (code_bytes) {
+			case 1:
+				out.writeByte(code);
+				break;
+			case 2:
+				out.writeShort(code);
+				break;
+			default:
+				out.writeInt(code);
+		}
+	}
+}
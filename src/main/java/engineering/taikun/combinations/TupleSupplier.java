@@ -24,9 +24,51 @@ import java.util.stream.Stream;
 	/**
 	 * <p>Compute the entire result and return it as two-dimensional array (tuples converted to arrays as well).</p>
 	 *
+	 * <p>If the supplied streams are {@link java.util.Spliterator#SIZED} the array is allocated once at its final size.
+	 * </p>
+	 *
 	 * @return An Object[][] containing all of the resulting tuples
 	 */
 	default Object[][] array() {
 		return get().map(t -> t.o).toArray(Object[][]::new);
 	}
+
+	/**
+	 * <p>Return the tuples in blocks of <tt>block_size</tt>, each a row-major Object[][] holding one tuple's elements
+	 * per row, so that consumers doing little work per tuple pay the per-element cost of a stream once per block. The
+	 * last block holds whatever remains and may be shorter.</p>
+	 *
+	 * <p>Rows are copies of the elements of the tuples, so writing into a block does not change the supplied tuples.</p>
+	 *
+	 * @param block_size The number of tuples in each block
+	 * @return A lazily constructed stream of blocks
+	 * @throws IllegalArgumentException If <tt>block_size</tt> is not positive
+	 */
+	default Stream<Object[][]> batches(final int block_size) {
+		return Batches.of(get(), block_size, false);
+	}
+
+	/**
+	 * <p>Like {@link #batches(int)}, but each block is columnar: one array per tuple position, holding that position's
+	 * element of every tuple in the block. A block has as many columns as its widest tuple has elements; columns
+	 * past the end of a narrower tuple hold null for it.</p>
+	 *
+	 * @param block_size The number of tuples in each block
+	 * @return A lazily constructed stream of column-major blocks
+	 * @throws IllegalArgumentException If <tt>block_size</tt> is not positive
+	 */
+	default Stream<Object[][]> columnBatches(final int block_size) {
+		return Batches.of(get(), block_size, true);
+	}
+
+	/**
+	 * <p>Wrap this supplier in one that keeps its tuples as <tt>policy</tt> says, so that later calls of
+	 * {@link #get()} are served without generating them again.</p>
+	 *
+	 * @param policy How to keep the tuples
+	 * @return A caching supplier of the same tuples, with its own hit and miss counts
+	 */
+	default CachedSupplier cached(final CachePolicy policy) {
+		return new CachedSupplier(this, policy);
+	}
 }
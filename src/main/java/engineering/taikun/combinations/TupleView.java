@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import java.util.Arrays;
+
+/**
+ * <p>A read-only window onto a tuple that is assembled in a reused buffer.</p>
+ *
+ * <p>A view is only valid during the callback it was passed to, after which its contents are overwritten with the
+ * next tuple. Use {@link #toTuple()} to keep one.</p>
+ */
+public final class TupleView {
+
+	final Object[] o;
+	int width;
+
+	TupleView(final Object[] o) {
+		this.o = o;
+	}
+
+	/**
+	 * @return The width of the current tuple
+	 */
+	public int size() {
+		return this.width;
+	}
+
+	/**
+	 * @param i A position in [0, size())
+	 * @return The object at that position of the current tuple
+	 */
+	public Object get(final int i) {
+		if (i < 0 || i >= this.width) {
+			throw new IndexOutOfBoundsException("Position " + i + " outside of [0, " + this.width + ')');
+		}
+
+		return this.o[i];
+	}
+
+	/**
+	 * @return A copy of the current tuple that stays valid
+	 */
+	public Tuple toTuple() {
+		return new Tuple(Arrays.copyOf(this.o, this.width));
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(Arrays.copyOf(this.o, this.width));
+	}
+}
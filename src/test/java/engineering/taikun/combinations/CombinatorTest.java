@@ -15,7 +15,14 @@ package engineering.taikun.combinations;
 
 import org.testng.annotations.Test;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static engineering.taikun.combinations.Tuple.t;
@@ -62,6 +69,1139 @@ public class CombinatorTest {
 		System.out.println("passed");
 	}
 
+	@Test
+	public static void ranks() {
+
+		System.out.println("Combinator rank test");
+
+		final Combinator[] combinators = {
+				new Combinator().chooseTwo('a', 'b', 'c').permuteTwo(1, 2, 3),
+				new Combinator().permuteThree(t('!', '*'), new Combinator().chooseTwo('x', 'y', 'z')),
+				new Combinator().chooseR(3, 1, 2, 3, 4, 5, 6, 7).permuteN(4, 'a', 'b', 'c', 'd', 'e'),
+				new Combinator().chooseOne(t(true, false), new Combinator().chooseOne(1, 2).permuteTwo('x', 'y'))
+						.permuteN(3, 1, 2, 3),
+				new Combinator().chooseTwo(1, t(1, 2), 2, new Combinator().chooseOne(1, 2)).permuteTwo(1, 1, 2),
+		};
+
+		for (final Combinator combinator : combinators) {
+			final List<Tuple> tuples = combinator.stream().collect(Collectors.toList());
+
+			for (int i = 0; i < tuples.size(); i++) {
+				assert_(combinator.get(i).equals(tuples.get(i)));
+				assert_(combinator.rankOf(tuples.get(i)) == tuples.indexOf(tuples.get(i)));
+			}
+		}
+
+		assert_(combinators[0].rankOf(t('a', 'a', 1, 2)) == -1);
+		assert_(combinators[0].rankOf(t('a', 'b', 1)) == -1);
+
+		final Object[] pool = IntStream.range(0, 60).mapToObj(i -> i).toArray();
+		final Combinator large = new Combinator().chooseR(10, pool).permuteN(3, pool);
+
+		assert_(large.get(0).toString().equals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 0, 1, 2]"));
+		assert_(large.get(1).toString().equals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 0, 1, 3]"));
+		assert_(large.get(15_479_901_739_851_119L).toString().equals(
+				"[50, 51, 52, 53, 54, 55, 56, 57, 58, 59, 59, 58, 57]"
+		));
+		assert_(large.rankOf(large.get(9_876_543_210_123L)) == 9_876_543_210_123L);
+
+		// r-permutations are the distinct tuples of the r-th power, and their states do not grow with the pool
+		for (int n = 0; n <= 6; n++) {
+			final Object[] small = IntStream.range(0, n).mapToObj(i -> i).toArray();
+
+			for (int r = 0; r <= n; r++) {
+				final CompiledCombinator permutations = new Combinator().permuteN(r, small).compile();
+				final List<Tuple> expected = new Combinator().permuteWithRepetition(r, small).stream()
+						.filter(tuple -> Arrays.stream(tuple.o).distinct().count() == tuple.o.length)
+						.collect(Collectors.toList());
+
+				assert_(permutations.stream().collect(Collectors.toList()).equals(expected));
+				assert_(permutations.stream().parallel().collect(Collectors.toList()).equals(expected));
+				assert_(permutations.newStates()[0].length == 2 * r);
+
+				for (int i = 0; i < expected.size(); i++) {
+					assert_(permutations.get(i).equals(expected.get(i)));
+				}
+			}
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void sizes() {
+
+		System.out.println("Combinator size test");
+
+		final Combinator simple = new Combinator().chooseTwo('a', 'b', 'c').permuteTwo(1, 2, 3);
+
+		assert_(simple.size() == 18);
+		assert_(simple.exactSize().equals(BigInteger.valueOf(18)));
+		assert_(simple.stream().spliterator().hasCharacteristics(Spliterator.SIZED));
+		assert_(simple.stream().spliterator().getExactSizeIfKnown() == 18);
+		assert_(simple.array().length == 18);
+
+		final Combinator advanced = new Combinator().permuteThree(
+				t('!', '*'),
+				new Combinator().chooseTwo('x', 'y', 'z')
+		);
+
+		assert_(advanced.size() == 24);
+		assert_(new Combinator().chooseFive(1, 2, 3).size() == 0);
+		assert_(new Combinator().permuteN(4, 1, 2, 3).size() == 0);
+		assert_(new Combinator().chooseR(0, 1, 2).chooseOne(1, 2).stream().count() == 2);
+		assert_(new Combinator().chooseOne(1, 2).chooseOne(advanced, (TupleSupplier) advanced::stream).size() == 96);
+
+		final Object[] pool = IntStream.range(0, 100).mapToObj(i -> i).toArray();
+		final Combinator huge = new Combinator().chooseR(40, pool).chooseR(40, pool);
+
+		assert_(huge.exactSize().equals(new BigInteger("188958953191235150767084963145373346773541786007172878400")));
+
+		assert_(huge.stream().limit(2).collect(Collectors.toList()).toString().equals(
+				"[" + IntStream.range(0, 80).map(i -> i % 40).boxed().collect(Collectors.toList()) + ", " +
+						IntStream.range(0, 80).map(i -> i == 79 ? 40 : i % 40).boxed().collect(Collectors.toList()) + ']'
+		));
+
+		try {
+			huge.size();
+			assert_(false);
+		} catch (final ArithmeticException e) {
+			// expected
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void parallel() {
+
+		System.out.println("Combinator parallel test");
+
+		final Object[] pool = IntStream.range(0, 12).mapToObj(i -> i).toArray();
+		final Combinator combinator = new Combinator().chooseFour(pool).permuteThree('a', 'b', 'c', 'd', 'e');
+
+		final List<Tuple> sequential = combinator.stream().collect(Collectors.toList());
+		final List<Tuple> parallel = combinator.stream().parallel().collect(Collectors.toList());
+
+		assert_(sequential.size() == 29_700);
+		assert_(parallel.equals(sequential));
+
+		final Spliterator<Tuple> suffix = combinator.stream().spliterator();
+		final Spliterator<Tuple> prefix = suffix.trySplit();
+
+		assert_(prefix.estimateSize() == 14_850 && suffix.estimateSize() == 14_850);
+		assert_(prefix.hasCharacteristics(Spliterator.SUBSIZED));
+
+		final Tuple[] first = new Tuple[1];
+		suffix.tryAdvance(tuple -> first[0] = tuple);
+		assert_(first[0].equals(sequential.get(14_850)));
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void indexes() {
+
+		System.out.println("Combinator index test");
+
+		final Combinator simple = new Combinator().chooseTwo('a', 'b', 'c').permuteTwo(1, 2, 3);
+
+		assert_(simple.indexStream().map(Arrays::toString).collect(Collectors.joining(", ")).equals(
+				"[0, 1, 0, 1], [0, 1, 0, 2], [0, 1, 1, 0], [0, 1, 1, 2], [0, 1, 2, 0], [0, 1, 2, 1], " +
+						"[0, 2, 0, 1], [0, 2, 0, 2], [0, 2, 1, 0], [0, 2, 1, 2], [0, 2, 2, 0], [0, 2, 2, 1], " +
+						"[1, 2, 0, 1], [1, 2, 0, 2], [1, 2, 1, 0], [1, 2, 1, 2], [1, 2, 2, 0], [1, 2, 2, 1]"
+		));
+
+		final Combinator advanced = new Combinator().permuteThree(
+				t('!', '*'),
+				new Combinator().chooseTwo('x', 'y', 'z')
+		);
+
+		final List<String> streamed = advanced.indexStream().map(Arrays::toString).collect(Collectors.toList());
+		final List<String> visited = new ArrayList<>();
+
+		advanced.forEachIndex(indexes -> visited.add(Arrays.toString(indexes)));
+
+		assert_(streamed.size() == 24);
+		assert_(streamed.get(0).equals("[0, 1, 2]") && streamed.get(23).equals("[3, 2, 1]"));
+		assert_(visited.equals(streamed));
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void views() {
+
+		System.out.println("Combinator view test");
+
+		final Combinator combinator = new Combinator()
+				.chooseOne(t(true, false), new Combinator().chooseOne(1, 2).permuteTwo('x', 'y'))
+				.permuteTwo('a', 'b', 'c');
+
+		final List<Tuple> copies = new ArrayList<>();
+		final List<String> strings = new ArrayList<>();
+		final TupleView[] views = new TupleView[1];
+
+		combinator.forEach(view -> {
+			assert_(views[0] == null || views[0] == view);
+			views[0] = view;
+
+			copies.add(view.toTuple());
+			strings.add(view.toString());
+		});
+
+		final List<Tuple> tuples = combinator.stream().collect(Collectors.toList());
+
+		assert_(copies.equals(tuples));
+		assert_(strings.equals(tuples.stream().map(Tuple::toString).collect(Collectors.toList())));
+		assert_(views[0].size() == 5 && views[0].get(4).equals('b'));
+
+		// where clauses step several factors at once, which are all written again
+		final Combinator filtered = combinator.where(new int[] { 1 }, tuple -> !tuple.o[0].equals('b'));
+		final List<Tuple> kept = new ArrayList<>();
+
+		filtered.forEach(view -> kept.add(view.toTuple()));
+
+		assert_(kept.equals(filtered.stream().collect(Collectors.toList())) && kept.size() == tuples.size() * 2 / 3);
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void expansion() {
+
+		System.out.println("Combinator expansion test");
+
+		final List<List<Tuple>> results = new ArrayList<>();
+
+		for (final long limit : new long[] { 0, 3, 8, Combinator.DEFAULT_EXPANSION_LIMIT }) {
+			final Combinator combinator = new Combinator()
+					.chooseTwo(new Combinator().chooseTwo('x', 'y', 'z'), 'w', new Combinator().permuteTwo(1, 2, 3))
+					.permuteTwo(t('!', '*'), new Combinator().chooseOne(true, false).chooseOne('a', 'b'))
+					.expansionLimit(limit);
+
+			results.add(combinator.stream().collect(Collectors.toList()));
+
+			final List<Tuple> viewed = new ArrayList<>();
+			combinator.forEach(view -> viewed.add(view.toTuple()));
+			assert_(viewed.equals(results.get(0)));
+		}
+
+		assert_(results.get(0).size() == 45 * 20);
+
+		for (final List<Tuple> result : results) {
+			assert_(result.equals(results.get(0)));
+		}
+
+		// three levels share one budget: 45 tuples expanded in the middle level leave 15 for the outer one
+		final Combinator inner = new Combinator().chooseTwo(IntStream.range(0, 10).mapToObj(i -> i).toArray());
+		final List<Tuple> nested_tuples = new Combinator().chooseOne(new Combinator().chooseOne(inner)).stream()
+				.collect(Collectors.toList());
+
+		for (final long limit : new long[] { 0, 44, 45, 60, 89, 90, 1000 }) {
+			final Combinator outer = new Combinator().chooseOne(new Combinator().chooseOne(inner)).expansionLimit(limit);
+			final CompiledCombinator compiled = outer.compile();
+
+			assert_(compiled.expanded <= limit && compiled.expanded == (limit < 45 ? 0 : limit < 90 ? 45 : 90));
+			assert_(compiled.stream().collect(Collectors.toList()).equals(nested_tuples));
+		}
+
+		// pools beyond int indexes, with more tuples than an int or a long counts, are scanned lazily
+		final Combinator huge = new Combinator().chooseR(16, IntStream.range(0, 40).mapToObj(i -> i).toArray());
+		final Combinator overflowing = new Combinator().chooseR(33, IntStream.range(0, 70).mapToObj(i -> i).toArray());
+
+		for (final Combinator nested : new Combinator[] { huge, overflowing }) {
+			final List<Tuple> first = nested.stream().limit(3).collect(Collectors.toList());
+
+			assert_(new Combinator().chooseOne(nested, 'x').stream().limit(3).collect(Collectors.toList())
+					.equals(first));
+
+			assert_(new Combinator().permuteTwo(nested, 'x').stream().limit(2).collect(Collectors.toList()).equals(
+					Arrays.asList(
+							t(Stream.of(first.get(0).o, first.get(1).o).flatMap(Arrays::stream).toArray()),
+							t(Stream.of(first.get(0).o, first.get(2).o).flatMap(Arrays::stream).toArray())
+					)
+			));
+
+			final Combinator filtered = new Combinator()
+					.chooseOne(nested)
+					.chooseOne(1, 2)
+					.where(new int[] { 1 }, tuple -> tuple.o[0].equals(2));
+
+			assert_(filtered.stream().limit(2).map(tuple -> tuple.o[tuple.o.length - 1]).allMatch(o -> o.equals(2)));
+
+			try {
+				filtered.size();
+				assert_(false);
+			} catch (final ArithmeticException e) {
+				// expected
+			}
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void compiled() throws InterruptedException {
+
+		System.out.println("Combinator compile test");
+
+		final Object[] pool = IntStream.range(0, 10).mapToObj(i -> i).toArray();
+		final Combinator combinator = new Combinator()
+				.chooseThree(pool)
+				.permuteTwo(t('!', '*'), new Combinator().chooseOne(true, false).chooseOne('a', 'b'), 'z');
+
+		final List<Tuple> expected = combinator.stream().collect(Collectors.toList());
+		final CompiledCombinator compiled = combinator.compile();
+
+		combinator.chooseOne(1, 2);
+
+		assert_(compiled.size() == expected.size() && combinator.size() == expected.size() * 2);
+
+		final List<List<Tuple>> results = new ArrayList<>();
+		final Thread[] threads = new Thread[4];
+
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				final List<Tuple> result = compiled.stream().collect(Collectors.toList());
+
+				synchronized (results) {
+					results.add(result);
+				}
+			});
+			threads[i].start();
+		}
+
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		assert_(results.size() == threads.length);
+
+		for (final List<Tuple> result : results) {
+			assert_(result.equals(expected));
+		}
+
+		assert_(compiled.stream().parallel().collect(Collectors.toList()).equals(expected));
+		assert_(compiled.get(77).equals(expected.get(77)) && compiled.rankOf(expected.get(77)) == 77);
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void gray() {
+
+		System.out.println("Combinator gray test");
+
+		final Combinator simple = new Combinator()
+				.chooseTwo('a', 'b', 'c')
+				.permuteTwo(1, 2, 3)
+				.order(Combinator.Order.GRAY);
+
+		assert_(simple.stream().collect(Collectors.toList()).toString().equals(
+				'[' +
+						"[a, b, 1, 2], [a, b, 2, 1], [a, b, 2, 3], [a, b, 3, 2], [a, b, 1, 3], [a, b, 3, 1], " +
+						"[b, c, 1, 2], [b, c, 2, 1], [b, c, 2, 3], [b, c, 3, 2], [b, c, 1, 3], [b, c, 3, 1], " +
+						"[a, c, 1, 2], [a, c, 2, 1], [a, c, 2, 3], [a, c, 3, 2], [a, c, 1, 3], [a, c, 3, 1]" +
+				']'
+		));
+
+		for (int n = 0; n <= 7; n++) {
+			final Object[] pool = IntStream.range(0, n).mapToObj(i -> i).toArray();
+
+			for (int r = 0; r <= n + 1; r++) {
+				for (final boolean combine : new boolean[] { true, false }) {
+					final Combinator lexicographic = combine
+							? new Combinator().chooseR(r, pool) : new Combinator().permuteN(r, pool);
+					final Combinator gray = (combine
+							? new Combinator().chooseR(r, pool) : new Combinator().permuteN(r, pool))
+							.order(Combinator.Order.GRAY);
+
+					final List<Tuple> tuples = gray.stream().collect(Collectors.toList());
+					final List<int[]> indexes = gray.indexStream().collect(Collectors.toList());
+
+					assert_(tuples.size() == gray.size());
+					assert_(tuples.stream().sorted(Comparator.comparing(Tuple::toString)).collect(Collectors.toList())
+							.equals(lexicographic.stream().sorted(Comparator.comparing(Tuple::toString))
+									.collect(Collectors.toList())));
+
+					for (int i = 0; i < tuples.size(); i++) {
+						assert_(gray.get(i).equals(tuples.get(i)));
+						assert_(gray.rankOf(tuples.get(i)) == i);
+
+						// cyclic: the last tuple changes into the first as little as any other
+						final int[] before = indexes.get(i == 0 ? indexes.size() - 1 : i - 1);
+						final int[] after = indexes.get(i);
+						final int changed = (int) IntStream.range(0, r).filter(j -> before[j] != after[j]).count();
+
+						assert_(changed <= (combine || r == n ? 2 : 4));
+					}
+				}
+			}
+		}
+
+		final Object[] pool = IntStream.range(0, 4000).mapToObj(i -> i).toArray();
+		final Combinator large = new Combinator().chooseR(5, pool).permuteN(2, 1, 2, 3, 4, 5, 6, 7, 8, 9)
+				.order(Combinator.Order.GRAY);
+
+		for (final long rank : new long[] { 0, 1, 9_876_543_210_123L, large.size() - 1 }) {
+			assert_(large.rankOf(large.get(rank)) == rank);
+		}
+
+		// more tuples than a long counts still stream
+		final Object[] wide = IntStream.range(0, 70).mapToObj(i -> i).toArray();
+
+		for (final boolean combine : new boolean[] { true, false }) {
+			final Combinator overflowing = (combine
+					? new Combinator().chooseR(33, wide) : new Combinator().permuteN(33, wide))
+					.order(Combinator.Order.GRAY);
+
+			assert_(overflowing.exactSize().bitLength() >= Long.SIZE);
+			assert_(overflowing.stream().limit(3).distinct().count() == 3);
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void changes() {
+
+		System.out.println("Combinator change test");
+
+		for (final Combinator.Order order : Combinator.Order.values()) {
+			final Combinator combinator = new Combinator()
+					.chooseTwo('a', 'b', 'c', 'd')
+					.permuteThree(t('!', '*'), new Combinator().chooseTwo('x', 'y', 'z'), 1, 2)
+					.chooseThree(1, 2, 3, 4, 5)
+					.order(order);
+
+			final List<String> expected = combinator.indexStream().map(Arrays::toString).collect(Collectors.toList());
+			final List<String> replayed = new ArrayList<>();
+			final int[] indexes = new int[8];
+			final int[] changes = { 0 };
+
+			combinator.forEachChange(new ChangeConsumer() {
+				@Override
+				public void change(final int position, final int previous, final int current) {
+					assert_(previous == (replayed.isEmpty() ? -1 : indexes[position]) && previous != current);
+
+					indexes[position] = current;
+					changes[0]++;
+				}
+
+				@Override
+				public void tuple() {
+					replayed.add(Arrays.toString(indexes));
+				}
+			});
+
+			assert_(replayed.equals(expected));
+
+			if (order == Combinator.Order.GRAY) {
+				assert_(changes[0] < 3 * expected.size());
+			}
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void walks() {
+
+		System.out.println("Combinator walk test");
+
+		final Combinator combinator = new Combinator()
+				.chooseTwo('a', 'b', 'c')
+				.permuteTwo(t('!', '*'), new Combinator().chooseOne('x', 'y'))
+				.chooseOne(1, 2);
+
+		final List<String> events = new ArrayList<>();
+		final List<Tuple> visited = new ArrayList<>();
+
+		combinator.walk(new PrefixVisitor() {
+			@Override
+			public void enter(final int factor, final TupleView prefix) {
+				events.add("enter " + factor + ' ' + prefix);
+			}
+
+			@Override
+			public void visit(final TupleView tuple) {
+				visited.add(tuple.toTuple());
+				events.add("visit");
+			}
+
+			@Override
+			public void exit(final int factor) {
+				events.add("exit " + factor);
+			}
+		});
+
+		assert_(visited.equals(combinator.stream().collect(Collectors.toList())));
+		assert_(events.stream().filter(e -> e.startsWith("enter 0")).count() == 3);
+		assert_(events.stream().filter(e -> e.startsWith("enter 1")).count() == 3 * 6);
+		assert_(events.subList(0, 5).equals(Arrays.asList(
+				"enter 0 [a, b]", "enter 1 [a, b, !, *, x]", "visit", "visit", "exit 1"
+		)));
+		assert_(events.get(events.size() - 1).equals("exit 0"));
+
+		final List<Tuple> single = new ArrayList<>();
+		new Combinator().permuteTwo(1, 2).walk(tuple -> single.add(tuple.toTuple()));
+		assert_(single.toString().equals("[[1, 2], [2, 1]]"));
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void clauses() {
+
+		System.out.println("Combinator where test");
+
+		final Object[] pool = IntStream.range(0, 8).mapToObj(i -> i).toArray();
+
+		for (final Combinator.Order order : Combinator.Order.values()) {
+			final int[] calls = { 0 };
+
+			final Combinator combinator = new Combinator()
+					.chooseTwo(pool)
+					.permuteTwo(pool)
+					.chooseThree(pool)
+					.order(order)
+					.where(new int[] { 1, 0 }, tuple -> {
+						calls[0]++;
+						return (int) tuple.o[0] - (int) tuple.o[1] == 1;
+					})
+					.where(new int[] { 2, 6 }, tuple -> (int) tuple.o[0] < (int) tuple.o[1]);
+
+			final Combinator unfiltered = new Combinator()
+					.chooseTwo(pool)
+					.permuteTwo(pool)
+					.chooseThree(pool)
+					.order(order);
+
+			final List<Tuple> expected = unfiltered.stream()
+					.filter(tuple -> (int) tuple.o[1] - (int) tuple.o[0] == 1 && (int) tuple.o[2] < (int) tuple.o[6])
+					.collect(Collectors.toList());
+
+			final List<Tuple> streamed = combinator.stream().collect(Collectors.toList());
+
+			assert_(calls[0] == 28);
+			assert_(streamed.equals(expected));
+			assert_(combinator.stream().parallel().collect(Collectors.toList()).equals(expected));
+			assert_(!combinator.stream().spliterator().hasCharacteristics(Spliterator.SIZED));
+			assert_(combinator.size() == unfiltered.size());
+
+			final List<Tuple> visited = new ArrayList<>();
+			combinator.forEach(view -> visited.add(view.toTuple()));
+			assert_(visited.equals(expected));
+
+			final List<Tuple> walked = new ArrayList<>();
+			combinator.walk(view -> walked.add(view.toTuple()));
+			assert_(walked.equals(expected));
+
+			for (final Tuple tuple : expected.subList(0, 10)) {
+				assert_(combinator.get(combinator.rankOf(tuple)).equals(tuple));
+			}
+		}
+
+		final Combinator inner = new Combinator().chooseTwo(1, 2, 3).where(new int[] { 1 }, tuple -> !tuple.o[0].equals(2));
+		final Combinator nested = new Combinator().chooseOne('a', inner).chooseOne(true, false);
+
+		assert_(nested.stream().collect(Collectors.toList()).toString().equals(
+				"[[a, true], [a, false], [1, 3, true], [1, 3, false], [2, 3, true], [2, 3, false]]"
+		));
+
+		assert_(new Combinator().chooseTwo(1, 2).where(new int[] { 0 }, tuple -> false).stream().count() == 0);
+		assert_(new Combinator().where(new int[0], tuple -> false).stream().count() == 0);
+		assert_(new Combinator().where(new int[0], tuple -> true).stream().count() == 1);
+
+		final int[] empty = { 0 };
+		new Combinator().where(new int[0], tuple -> false).forEach(view -> empty[0]++);
+		assert_(empty[0] == 0);
+
+		try {
+			new Combinator().chooseTwo(1, 2, 3).where(new int[] { 2 }, tuple -> true).stream();
+			assert_(false);
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void samples() {
+
+		System.out.println("Combinator sample test");
+
+		final Object[] pool = IntStream.range(0, 100).mapToObj(i -> i).toArray();
+		final Combinator huge = new Combinator()
+				.chooseR(6, pool)
+				.permuteN(3, pool)
+				.chooseOne(t('x', 'y'), (TupleSupplier) () -> Stream.of(t(true), t(false)));
+
+		final List<Tuple> sample = huge.sample(1000, 42).collect(Collectors.toList());
+
+		assert_(huge.size() > 1_000_000_000_000_000L);
+		assert_(sample.size() == 1000 && sample.stream().distinct().count() == 1000);
+		assert_(sample.equals(huge.sample(1000, 42).collect(Collectors.toList())));
+		assert_(!sample.equals(huge.sample(1000, 43).collect(Collectors.toList())));
+		assert_(sample.stream().allMatch(tuple -> huge.get(huge.rankOf(tuple)).equals(tuple)));
+
+		final Combinator small = new Combinator().chooseTwo('a', 'b', 'c', 'd').permuteTwo(1, 2, 3);
+		final List<Tuple> all = small.sample(small.size(), 7).collect(Collectors.toList());
+
+		assert_(all.stream().sorted(Comparator.comparing(Tuple::toString)).collect(Collectors.toList())
+				.equals(small.stream().sorted(Comparator.comparing(Tuple::toString)).collect(Collectors.toList())));
+
+		// every tuple about equally often
+		final int[] counts = new int[(int) small.size()];
+		small.sampleWithReplacement(36_000, 7).forEach(tuple -> counts[(int) small.rankOf(tuple)]++);
+		assert_(Arrays.stream(counts).allMatch(count -> count > 800 && count < 1200));
+
+		final Combinator filtered = new Combinator().chooseTwo('a', 'b', 'c', 'd').permuteTwo(1, 2, 3)
+				.where(new int[] { 0 }, tuple -> tuple.o[0].equals('a'));
+
+		assert_(filtered.sample(small.size(), 7).count() == 18);
+		assert_(filtered.sampleWithReplacement(100, 7).allMatch(tuple -> tuple.o[0].equals('a')));
+
+		try {
+			small.sample(small.size() + 1, 7);
+			assert_(false);
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void shards() {
+
+		System.out.println("Combinator shard test");
+
+		final Combinator combinator = new Combinator().chooseTwo('a', 'b', 'c', 'd').permuteTwo(1, 2, 3, 4);
+		final List<Tuple> expected = combinator.stream().collect(Collectors.toList());
+
+		for (final int count : new int[] { 1, 5, 7, 72, 100 }) {
+			final List<Tuple> joined = new ArrayList<>();
+
+			for (int index = 0; index < count; index++) {
+				final TupleSupplier shard = combinator.shard(index, count);
+				final List<Tuple> tuples = shard.get().collect(Collectors.toList());
+
+				assert_(tuples.size() == 72 / count || tuples.size() == 72 / count + 1);
+				assert_(shard.get().collect(Collectors.toList()).equals(tuples));
+
+				joined.addAll(tuples);
+			}
+
+			assert_(joined.equals(expected));
+		}
+
+		assert_(combinator.stream(10, 20).collect(Collectors.toList()).equals(expected.subList(10, 20)));
+		assert_(combinator.stream(72, 72).count() == 0);
+
+		final Object[] pool = IntStream.range(0, 60).mapToObj(i -> i).toArray();
+		final Combinator large = new Combinator().chooseR(10, pool).permuteN(3, pool);
+
+		final long start = large.size() / 1000 * 999 + Math.min(999, large.size() % 1000);
+		assert_(large.shard(999, 1000).get().findFirst().get().equals(large.get(start)));
+
+		try {
+			combinator.shard(5, 5);
+			assert_(false);
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+
+		try {
+			combinator.stream(0, 73);
+			assert_(false);
+		} catch (final IndexOutOfBoundsException e) {
+			// expected
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void cursors() {
+
+		System.out.println("Combinator cursor test");
+
+		final Combinator combinator = new Combinator()
+				.chooseTwo('a', 'b', 'c', 'd')
+				.permuteTwo(t('!', '*'), new Combinator().chooseOne(1, 2), 3)
+				.where(new int[] { 0, 2 }, tuple -> !tuple.o[0].equals('b'));
+
+		final List<Tuple> expected = combinator.stream().collect(Collectors.toList());
+		final List<Tuple> resumed = new ArrayList<>();
+
+		Cursor cursor = combinator.cursor();
+
+		while (cursor.hasNext()) {
+			final long position = cursor.position();
+			resumed.add(cursor.next());
+			assert_(combinator.get(position).equals(resumed.get(resumed.size() - 1)));
+
+			// resume from scratch every third tuple, alternating between the two forms
+			if (resumed.size() % 3 == 0) {
+				cursor = resumed.size() % 2 == 0
+						? combinator.resume(cursor.checkpoint())
+						: combinator.cursor(cursor.position());
+			}
+		}
+
+		assert_(resumed.equals(expected));
+		assert_(cursor.position() == combinator.size());
+
+		final Object[] pool = IntStream.range(0, 60).mapToObj(i -> i).toArray();
+		final Combinator large = new Combinator().chooseR(10, pool).permuteN(3, pool);
+		final Cursor far = large.cursor(8_000_000_000L);
+
+		far.next();
+		final byte[] checkpoint = far.checkpoint();
+
+		assert_(checkpoint.length == 16);
+		assert_(large.resume(checkpoint).next().equals(large.get(8_000_000_001L)));
+
+		try {
+			new Combinator().chooseR(10, pool).permuteN(2, pool).resume(checkpoint);
+			assert_(false);
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void repetitions() {
+
+		System.out.println("Combinator repetitions test");
+
+		assert_(new Combinator().chooseWithRepetition(2, 'a', 'b', 'c').stream().collect(Collectors.toList())
+				.toString().equals("[[a, a], [a, b], [a, c], [b, b], [b, c], [c, c]]"));
+		assert_(new Combinator().permuteWithRepetition(2, 'a', 'b').stream().collect(Collectors.toList())
+				.toString().equals("[[a, a], [a, b], [b, a], [b, b]]"));
+
+		for (int n = 0; n <= 5; n++) {
+			final Object[] pool = IntStream.range(0, n).mapToObj(i -> i).toArray();
+
+			for (int r = 0; r <= 4; r++) {
+				// every base n number of r digits in order, and the non-decreasing ones among them
+				final List<int[]> power = new ArrayList<>();
+				final long total = BigInteger.valueOf(n).pow(r).longValueExact();
+
+				for (long rank = 0; rank < total; rank++) {
+					final int[] digits = new int[r];
+					long rest = rank;
+
+					for (int i = r - 1; i >= 0; i--) {
+						digits[i] = (int) (rest % n);
+						rest /= n;
+					}
+
+					power.add(digits);
+				}
+
+				final List<int[]> multisets = power.stream()
+						.filter(d -> IntStream.range(1, d.length).allMatch(i -> d[i - 1] <= d[i]))
+						.collect(Collectors.toList());
+
+				for (final Combinator.Order order : Combinator.Order.values()) {
+					final Combinator choose = new Combinator().chooseWithRepetition(r, pool).order(order);
+					final Combinator permute = new Combinator().permuteWithRepetition(r, pool).order(order);
+
+					assert_(choose.size() == multisets.size());
+					assert_(permute.size() == power.size());
+					assert_(Arrays.deepEquals(choose.indexStream().toArray(), multisets.toArray()));
+					assert_(Arrays.deepEquals(permute.indexStream().toArray(), power.toArray()));
+
+					for (final Combinator combinator : new Combinator[] { choose, permute }) {
+						final List<Tuple> tuples = combinator.stream().collect(Collectors.toList());
+
+						for (int i = 0; i < tuples.size(); i++) {
+							assert_(combinator.get(i).equals(tuples.get(i)));
+							assert_(combinator.rankOf(tuples.get(i)) == i);
+						}
+					}
+				}
+			}
+		}
+
+		final Object[] pool = IntStream.range(0, 100).mapToObj(i -> i).toArray();
+		final Object[] shifted = IntStream.range(0, 129).mapToObj(i -> i).toArray();
+
+		assert_(new Combinator().chooseWithRepetition(30, pool).permuteWithRepetition(3, 1, 2, 3).exactSize()
+				.equals(new Combinator().chooseR(30, shifted).exactSize().multiply(BigInteger.valueOf(27))));
+
+		final Combinator large = new Combinator().chooseWithRepetition(10, pool).permuteWithRepetition(3, 1, 2, 3);
+
+		for (final long rank : new long[] { 0, 1, 1_234_567_890_123L, large.size() - 1 }) {
+			assert_(large.rankOf(large.get(rank)) == rank);
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void distinct() {
+
+		System.out.println("Combinator distinct test");
+
+		assert_(new Combinator().permuteDistinct(4, 1, 1, 2, 2).stream().collect(Collectors.toList()).toString().equals(
+				"[[1, 1, 2, 2], [1, 2, 1, 2], [1, 2, 2, 1], [2, 1, 1, 2], [2, 1, 2, 1], [2, 2, 1, 1]]"
+		));
+		assert_(new Combinator().permuteDistinct(2, 'b', 'a', 'b').stream().collect(Collectors.toList()).toString()
+				.equals("[[b, b], [b, a], [a, b]]"));
+
+		final Object[][] pools = {
+				{}, { 1 }, { 1, 1 }, { 1, 2, 1 }, { 1, 1, 1, 2 }, { 3, 1, 2, 1, 3 }, { 1, 2, 3, 4 }, { 2, 2, 2, 2, 2 },
+				{ 1, 2, 1, 3, 2, 1 }
+		};
+
+		for (final Object[] pool : pools) {
+			for (int r = 0; r <= pool.length + 1; r++) {
+				final Combinator distinct = new Combinator().chooseOne('x', 'y').permuteDistinct(r, pool);
+				final List<Tuple> tuples = distinct.stream().collect(Collectors.toList());
+				final List<Tuple> expected = new Combinator().chooseOne('x', 'y').permuteN(r, pool).stream()
+						.distinct().collect(Collectors.toList());
+
+				assert_(tuples.size() == distinct.size());
+				assert_(distinct.exactSize().equals(BigInteger.valueOf(expected.size())));
+				assert_(tuples.stream().sorted(Comparator.comparing(Tuple::toString)).collect(Collectors.toList())
+						.equals(expected.stream().sorted(Comparator.comparing(Tuple::toString))
+								.collect(Collectors.toList())));
+
+				for (int i = 0; i < tuples.size(); i++) {
+					assert_(distinct.get(i).equals(tuples.get(i)));
+					assert_(distinct.rankOf(tuples.get(i)) == i);
+				}
+			}
+		}
+
+		// 40!/(10!)^4 arrangements, beyond a long
+		final Object[] pool = IntStream.range(0, 40).mapToObj(i -> i % 4).toArray();
+		final Combinator large = new Combinator().permuteDistinct(40, pool);
+		BigInteger multinomial = BigInteger.ONE;
+
+		for (int i = 1; i <= 40; i++) {
+			multinomial = multinomial.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf((i - 1) / 4 + 1));
+		}
+
+		assert_(large.exactSize().equals(multinomial));
+
+		final Combinator medium = new Combinator().permuteDistinct(24, Arrays.copyOf(pool, 24));
+
+		for (final long rank : new long[] { 0, 1, 1_234_567_890_123L, medium.size() - 1 }) {
+			assert_(medium.rankOf(medium.get(rank)) == rank);
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void ints() {
+
+		System.out.println("Combinator ints test");
+
+		final IntCombinator simple = new IntCombinator().chooseR(2, 1, 2, 3).permuteN(2, 7, 8);
+
+		assert_(simple.stream().map(Arrays::toString).collect(Collectors.joining(", ")).equals(
+				"[1, 2, 7, 8], [1, 2, 8, 7], [1, 3, 7, 8], [1, 3, 8, 7], [2, 3, 7, 8], [2, 3, 8, 7]"
+		));
+		assert_(simple.flatStream().sum() == 2 * (3 + 4 + 5) + 6 * (7 + 8));
+
+		final int[] pool = { 5, 3, 5, 9 };
+		final IntCombinator ints = new IntCombinator()
+				.chooseOne(4, 2)
+				.chooseR(2, pool)
+				.permuteN(2, pool)
+				.chooseWithRepetition(2, 1, 2)
+				.permuteWithRepetition(2, 0, 1)
+				.permuteDistinct(3, pool)
+				.order(Combinator.Order.GRAY);
+		final Combinator boxed = new Combinator()
+				.chooseOne(4, 2)
+				.chooseR(2, 5, 3, 5, 9)
+				.permuteN(2, 5, 3, 5, 9)
+				.chooseWithRepetition(2, 1, 2)
+				.permuteWithRepetition(2, 0, 1)
+				.permuteDistinct(3, 5, 3, 5, 9)
+				.order(Combinator.Order.GRAY);
+
+		// the pool may change after it is passed
+		pool[0] = 0;
+
+		final List<int[]> expected = boxed.stream()
+				.map(tuple -> Arrays.stream(tuple.o).mapToInt(o -> (Integer) o).toArray())
+				.collect(Collectors.toList());
+
+		assert_(ints.width() == 12);
+		assert_(ints.size() == boxed.size() && ints.exactSize().equals(boxed.exactSize()));
+		assert_(Arrays.deepEquals(ints.stream().toArray(), expected.toArray()));
+		assert_(Arrays.deepEquals(ints.stream().parallel().toArray(), expected.toArray()));
+
+		final List<int[]> reused = new ArrayList<>();
+		ints.forEach(values -> reused.add(values.clone()));
+
+		assert_(Arrays.deepEquals(reused.toArray(), expected.toArray()));
+
+		for (int i = 0; i < expected.size(); i += 97) {
+			assert_(Arrays.equals(ints.get(i), expected.get(i)));
+			assert_(ints.rankOf(expected.get(i)) == boxed.rankOf(boxed.get(i)));
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void masks() {
+
+		System.out.println("Combinator masks test");
+
+		assert_(Arrays.toString(new Combinator().chooseTwo('a', 'b', 'c').maskStream().toArray()).equals("[3, 5, 6]"));
+		assert_(new Combinator().chooseTwo('a', 'b', 'c').decode(5).equals(t('a', 'c')));
+
+		for (final int n : new int[] { 0, 1, 5, 9, 63, 64, 65, 130 }) {
+			final Object[] pool = IntStream.range(0, n).mapToObj(i -> i).toArray();
+
+			// r > n has no combinations, however many words its first mask would take
+			for (final int r : new int[] { 0, 1, 2, 3, n - 1, n, n + 1, 2 * n }) {
+				if (r < 0 || r > 3 && r <= n && n > 9) {
+					continue;
+				}
+
+				final CompiledCombinator compiled = new Combinator().chooseR(r, pool).compile();
+				final List<long[]> wide = compiled.wideMaskStream().collect(Collectors.toList());
+
+				assert_(wide.size() == compiled.size());
+				assert_(wide.stream().map(compiled::decode).sorted(Comparator.comparing(Tuple::toString))
+						.collect(Collectors.toList())
+						.equals(compiled.stream().sorted(Comparator.comparing(Tuple::toString))
+								.collect(Collectors.toList())));
+
+				for (int i = 1; i < wide.size(); i++) {
+					// colexicographic: the masks increase as numbers
+					int w = wide.get(i).length - 1;
+
+					while (w > 0 && wide.get(i - 1)[w] == wide.get(i)[w]) {
+						w--;
+					}
+
+					assert_(Long.compareUnsigned(wide.get(i - 1)[w], wide.get(i)[w]) < 0);
+				}
+
+				if (n <= 64) {
+					final long[] masks = compiled.maskStream().toArray();
+
+					assert_(Arrays.equals(masks, compiled.maskStream().parallel().toArray()));
+					assert_(Arrays.equals(masks, wide.stream().mapToLong(mask -> mask[0]).toArray()));
+				}
+			}
+		}
+
+		final Combinator large = new Combinator().chooseR(4, IntStream.range(0, 64).mapToObj(i -> i).toArray());
+
+		assert_(large.maskStream().parallel().distinct().count() == large.size());
+		assert_(large.maskStream().skip(large.size() - 1).findFirst().getAsLong() == 0xf000000000000000L);
+
+		for (final Combinator unmaskable : new Combinator[] {
+				new Combinator().permuteN(2, 1, 2, 3),
+				new Combinator().chooseOne(1, 2).chooseOne(3, 4),
+				new Combinator().chooseR(2, IntStream.range(0, 65).mapToObj(i -> i).toArray())
+		}) {
+			try {
+				unmaskable.maskStream();
+				assert_(false);
+			} catch (final IllegalStateException e) {
+				// expected
+			}
+		}
+
+		try {
+			new Combinator().chooseTwo('a', 'b', 'c').decode(7);
+			assert_(false);
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void batches() {
+
+		System.out.println("Combinator batches test");
+
+		final Combinator simple = new Combinator().chooseTwo('a', 'b', 'c').permuteTwo(1, 2);
+
+		assert_(simple.batches(4).map(Arrays::deepToString).collect(Collectors.toList()).toString().equals(
+				"[[[a, b, 1, 2], [a, b, 2, 1], [a, c, 1, 2], [a, c, 2, 1]], [[b, c, 1, 2], [b, c, 2, 1]]]"
+		));
+		assert_(simple.columnBatches(4).map(Arrays::deepToString).collect(Collectors.toList()).toString().equals(
+				"[[[a, a, a, a], [b, b, c, c], [1, 2, 1, 2], [2, 1, 2, 1]], [[b, b], [c, c], [1, 2], [2, 1]]]"
+		));
+
+		final Combinator nested = new Combinator()
+				.chooseTwo(t('!', '*'), new Combinator().chooseTwo('x', 'y', 'z'), 0)
+				.permuteN(2, 1, 2, 3);
+		final Combinator filtered = new Combinator()
+				.chooseTwo(t('!', '*'), new Combinator().chooseTwo('x', 'y', 'z'), 0)
+				.permuteN(2, 1, 2, 3)
+				.where(new int[] { 2, 3 }, tuple -> !tuple.o[0].equals(2));
+
+		final TupleSupplier plain = nested::get;
+
+		for (final TupleSupplier supplier : new TupleSupplier[] { nested, filtered, nested.compile(), plain }) {
+			final List<Tuple> tuples = supplier.get().collect(Collectors.toList());
+
+			for (final int block_size : new int[] { 1, 7, 64, 1000 }) {
+				final List<Object[][]> rows = supplier.batches(block_size).collect(Collectors.toList());
+				final List<Object[][]> columns = supplier.columnBatches(block_size).collect(Collectors.toList());
+
+				assert_(rows.size() == (tuples.size() + block_size - 1) / block_size);
+				assert_(rows.stream().flatMap(Arrays::stream).map(Tuple::new).collect(Collectors.toList())
+						.equals(tuples));
+				assert_(rows.size() == columns.size());
+
+				for (int b = 0; b < rows.size(); b++) {
+					final Object[][] block = rows.get(b);
+
+					assert_(b == rows.size() - 1 || block.length == block_size);
+					assert_(Arrays.deepEquals(columns.get(b), Batches.transpose(block)));
+				}
+
+				assert_(Arrays.deepEquals(
+						supplier.batches(block_size).parallel().flatMap(Arrays::stream).toArray(),
+						tuples.stream().map(tuple -> tuple.o).toArray()
+				));
+			}
+		}
+
+		try {
+			simple.batches(0);
+			assert_(false);
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void caches() {
+
+		System.out.println("Combinator caches test");
+
+		final Combinator combinator = new Combinator().chooseTwo('a', 'b', 'c', 'd').permuteN(2, 1, 2, 3);
+		final List<Tuple> expected = combinator.stream().collect(Collectors.toList());
+		final int[] calls = { 0 };
+		final TupleSupplier counted = () -> {
+			calls[0]++;
+			return combinator.stream();
+		};
+
+		for (final CachePolicy policy : new CachePolicy[] {
+				CachePolicy.materialize(), CachePolicy.soft(), CachePolicy.shared(new TupleCache(1 << 20))
+		}) {
+			calls[0] = 0;
+			final CachedSupplier cached = counted.cached(policy);
+
+			for (int i = 0; i < 3; i++) {
+				assert_(cached.get().collect(Collectors.toList()).equals(expected));
+			}
+
+			assert_(calls[0] == 1 && cached.misses() == 1 && cached.hits() == 2);
+		}
+
+		for (final int n : new int[] { 0, 5, 36, 100 }) {
+			for (final TupleSupplier supplier : new TupleSupplier[] { counted, combinator, combinator.compile() }) {
+				calls[0] = 0;
+				final CachedSupplier cached = supplier.cached(CachePolicy.prefix(n));
+
+				for (int i = 0; i < 3; i++) {
+					assert_(cached.get().collect(Collectors.toList()).equals(expected));
+				}
+
+				assert_(cached.misses() == 1 && cached.hits() == 2);
+				assert_(supplier != counted || calls[0] == (n <= expected.size() ? 3 : 1));
+			}
+		}
+
+		// room for two of the three suppliers
+		final long bytes = TupleCache.bytes(combinator.stream().toArray(Tuple[]::new));
+		final TupleCache cache = new TupleCache(2 * bytes + bytes / 2);
+		final CachedSupplier[] shared = {
+				combinator.cached(CachePolicy.shared(cache)),
+				combinator.compile().cached(CachePolicy.shared(cache)),
+				counted.cached(CachePolicy.shared(cache))
+		};
+
+		shared[0].get();
+		shared[1].get();
+		shared[0].get();
+		shared[2].get();
+
+		// the least recently used second supplier was evicted for the third
+		assert_(cache.bytes() == 2 * bytes && cache.evictions() == 1);
+		assert_(shared[0].get().count() == expected.size() && shared[2].get().count() == expected.size());
+		assert_(shared[1].get().count() == expected.size() && shared[1].misses() == 2);
+		assert_(cache.hits() == 3 && cache.misses() == 4 && cache.evictions() == 2);
+
+		final TupleCache tiny = new TupleCache(bytes - 1);
+		final CachedSupplier uncached = combinator.cached(CachePolicy.shared(tiny));
+
+		assert_(uncached.get().count() == expected.size() && uncached.get().count() == expected.size());
+		assert_(uncached.misses() == 2 && tiny.bytes() == 0);
+
+		// writing into a batch row leaves the cached tuples and their hash codes alone
+		final CachedSupplier kept = counted.cached(CachePolicy.materialize());
+		final int hash = kept.get().findFirst().get().hashCode();
+
+		kept.batches(4).findFirst().get()[0][0] = 'z';
+
+		assert_(kept.get().collect(Collectors.toList()).equals(expected));
+		assert_(kept.get().findFirst().get().hashCode() == hash && hash == expected.get(0).hashCode());
+
+		System.out.println("passed");
+	}
+
+	@Test
+	public static void hashes() {
+
+		System.out.println("Combinator hashes test");
+
+		final Tuple hashed = t('a', 1, null);
+		final Tuple fresh = t('a', 1, null);
+
+		assert_(hashed.hashCode() == Arrays.hashCode(new Object[] { 'a', 1, null }));
+		assert_(hashed.hashCode() == hashed.hashCode());
+		assert_(hashed.equals(fresh) && fresh.equals(hashed) && fresh.hashCode() == hashed.hashCode());
+		assert_(hashed.equals(fresh) && !hashed.equals(t('a', 2, null)) && !t('a', 2, null).equals(hashed));
+
+		// a hash code of 0 is recomputed, but stays correct
+		assert_(t(-31).hashCode() == 0 && t(-31).equals(t(-31)) && !t(-31).equals(t(-30)));
+
+		// equality compares elements only, even of a tuple changed after hashing
+		final Tuple changed = t('a', 1, null);
+		changed.hashCode();
+		changed.o[1] = 2;
+		final Tuple same = t('a', 2, null);
+		same.hashCode();
+		assert_(changed.equals(same) && same.equals(changed));
+
+		final Combinator combinator = new Combinator().permuteN(3, 1, 1, 2, 2);
+
+		assert_(combinator.stream().distinct().collect(Collectors.toList())
+				.equals(new Combinator().permuteDistinct(3, 1, 1, 2, 2).stream()
+						.sorted(Comparator.comparing(tuple -> combinator.rankOf(tuple)))
+						.collect(Collectors.toList())));
+
+		System.out.println("passed");
+	}
+
 	public static void assert_(final boolean bool) {
 		if (!bool) throw new RuntimeException();
 	}
@@ -16,8 +16,10 @@ package engineering.taikun.combinations;
 import org.testng.annotations.Test;
 
 import java.util.HashSet;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static engineering.taikun.combinations.RelationFilter.ALL_K_INT_SETS;
 import static engineering.taikun.combinations.RelationFilter.ALL_PAIRS;
 import static engineering.taikun.combinations.Tuple.t;
 
@@ -78,6 +80,13 @@ public class RelationFilterTest {
 		assert_(advanced0126.size() == 10);
 		assert_(advanced3456.size() == 10);
 
+		final Combinator ints_comb = new Combinator().permuteOne(1, 2, 3).permuteOne(4, 5).permuteOne(6, 7, 8);
+
+		assert_(new RelationFilter(ints_comb, ALL_K_INT_SETS(3, 2)).get().collect(Collectors.toList())
+				.equals(new RelationFilter(ints_comb, ALL_PAIRS(3)).get().collect(Collectors.toList())));
+		assert_(new RelationFilter(ints_comb, new int[] { 0, 2 }).get().collect(Collectors.toList())
+				.equals(new RelationFilter(ints_comb, t(0, 2)).get().collect(Collectors.toList())));
+
 		System.out.println("passed");
 	}
 
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 Philip Smith as Taikun Engineering
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package engineering.taikun.combinations;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static engineering.taikun.combinations.RelationFilter.ALL_PAIRS;
+import static engineering.taikun.combinations.Tuple.t;
+
+public class TupleFileTest {
+
+	@Test
+	public static void main() throws IOException {
+
+		System.out.println("Tuple file test");
+
+		final Path path = Files.createTempFile("tuples", ".bin");
+
+		try {
+			final Combinator nested = new Combinator()
+					.chooseOne(t('!', '*'), new Combinator().chooseTwo('x', 'y', 'z'), null)
+					.permuteN(2, 1, 2L, "3", 4.0);
+
+			for (final TupleSupplier supplier : new TupleSupplier[] {
+					nested,
+					new RelationFilter(
+							new Combinator().permuteOne(true, false).permuteOne(1, 2, 3).permuteOne('a', 'b'),
+							ALL_PAIRS(3)
+					),
+					new Combinator().chooseOne(IntStream.range(0, 300).boxed().toArray()).chooseOne(1, 2),
+					new Combinator().chooseOne(IntStream.range(0, 70000).boxed().toArray()),
+					new Combinator().chooseR(2, 'a'),
+					new Combinator().chooseOne(t())
+			}) {
+				final List<Tuple> expected = supplier.get().collect(Collectors.toList());
+
+				assert_(TupleFile.write(path, supplier) == expected.size());
+
+				final TupleFile file = TupleFile.read(path);
+
+				assert_(file.size() == expected.size());
+				assert_(file.get().collect(Collectors.toList()).equals(expected));
+				assert_(file.get().parallel().collect(Collectors.toList()).equals(expected));
+
+				for (int i = 0; i < expected.size(); i += 101) {
+					assert_(file.get(i).equals(expected.get(i)));
+				}
+
+				final List<Tuple> viewed = new ArrayList<>();
+				file.forEach(view -> viewed.add(view.toTuple()));
+
+				assert_(viewed.equals(expected));
+			}
+
+			// one byte per code: 4 + 1 + 1 + 2 + 4 + 4 + 8 header bytes, then 12 rows of 4
+			TupleFile.write(path, new Combinator().chooseOne(1, 2, 3).permuteN(2, 'a', 'b').chooseOne(true, false));
+			assert_(Files.size(path) > 24 + 12 * 4 && TupleFile.read(path).width() == 4);
+
+			// enums are allowed, other classes only if asked for
+			final Combinator dated = new Combinator().chooseOne(TimeUnit.SECONDS, new Date(0)).chooseOne(1, 2);
+			TupleFile.write(path, dated);
+
+			try {
+				TupleFile.read(path);
+				assert_(false);
+			} catch (final IOException e) {
+				// expected
+			}
+
+			assert_(TupleFile.read(path, Date.class).get().collect(Collectors.toList())
+					.equals(dated.stream().collect(Collectors.toList())));
+
+			Files.write(path, new byte[] { 1, 2, 3 });
+
+			try {
+				TupleFile.read(path);
+				assert_(false);
+			} catch (final IOException e) {
+				// expected
+			}
+		} finally {
+			Files.delete(path);
+		}
+
+		System.out.println("passed");
+	}
+
+	public static void assert_(final boolean bool) {
+		if (!bool) throw new RuntimeException();
+	}
+}